@@ -1,5 +1,6 @@
 package com.sunnysuperman.repository;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,20 @@ public interface CRUDRepository<T, I> {
 
 	SaveResult save(T entity) throws RepositoryException;
 
+	/**
+	 * Saves the entities one by one, implementations may override it with a
+	 * batched version.
+	 *
+	 * @return save result of each entity, in the same order as entityList
+	 */
+	default List<SaveResult> saveBatch(List<T> entityList) throws RepositoryException {
+		List<SaveResult> results = new ArrayList<>(entityList.size());
+		for (T entity : entityList) {
+			results.add(save(entity));
+		}
+		return results;
+	}
+
 	void insert(T entity) throws RepositoryException;
 
 	void insertBatch(List<T> entityList) throws RepositoryException;
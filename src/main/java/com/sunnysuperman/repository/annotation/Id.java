@@ -11,4 +11,10 @@ public @interface Id {
 
 	IdStrategy strategy();
 
+	/**
+	 * Sequence of {@link IdStrategy#SEQUENCE} (default table_seq) or segment name
+	 * of {@link IdStrategy#HILO} (default table name).
+	 */
+	String sequence() default "";
+
 }
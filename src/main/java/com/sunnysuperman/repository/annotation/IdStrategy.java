@@ -4,4 +4,10 @@ public enum IdStrategy {
 	PROVIDED, // 应用提供
 
 	INCREMENT, // 数据库自增
+
+	SNOWFLAKE, // 应用生成，时间戳+机器号+序号
+
+	HILO, // 应用生成，从号段表按块分配
+
+	SEQUENCE, // 数据库序列
 }
@@ -0,0 +1,138 @@
+package com.sunnysuperman.repository.db;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Iterator;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Encodes rows on demand as tab separated text, the default format of both
+ * MySQL LOAD DATA and PostgreSQL COPY: <code>\N</code> for null and backslash
+ * escapes for backslash, tab, newline, carriage return and NUL. PostgreSQL
+ * rejects NUL in text even when escaped, so values with NUL fail on the client
+ * unless nulAllowed. Ends after maxRows rows, so only one row is buffered at a
+ * time.
+ */
+class BulkLoadInputStream extends InputStream {
+	private static final byte[] EMPTY = new byte[0];
+	private final Iterator<Object[]> rows;
+	private final int columnCount;
+	private final int maxRows;
+	private final boolean nulAllowed;
+	private final StringBuilder line = new StringBuilder();
+	private byte[] buf = EMPTY;
+	private int pos;
+	private int rowCount;
+
+	BulkLoadInputStream(Iterator<Object[]> rows, int columnCount, int maxRows, boolean nulAllowed) {
+		super();
+		this.rows = rows;
+		this.columnCount = columnCount;
+		this.maxRows = maxRows;
+		this.nulAllowed = nulAllowed;
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public int read() {
+		if (!fill()) {
+			return -1;
+		}
+		return buf[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int n = 0;
+		while (n < len && fill()) {
+			int count = Math.min(len - n, buf.length - pos);
+			System.arraycopy(buf, pos, b, off + n, count);
+			pos += count;
+			n += count;
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	private boolean fill() {
+		if (pos < buf.length) {
+			return true;
+		}
+		if (rowCount >= maxRows || !rows.hasNext()) {
+			return false;
+		}
+		Object[] row = rows.next();
+		if (row.length != columnCount) {
+			throw new RepositoryException("Bulk load requires " + columnCount + " columns for each row");
+		}
+		line.setLength(0);
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				line.append('\t');
+			}
+			appendValue(row[i]);
+		}
+		line.append('\n');
+		buf = line.toString().getBytes(StandardCharsets.UTF_8);
+		pos = 0;
+		rowCount++;
+		return true;
+	}
+
+	private void appendValue(Object value) {
+		if (value == null) {
+			line.append("\\N");
+		} else if (value instanceof Boolean) {
+			line.append((Boolean) value ? '1' : '0');
+		} else if (value instanceof BigDecimal) {
+			line.append(((BigDecimal) value).toPlainString());
+		} else if (value instanceof Number) {
+			line.append(value);
+		} else if (value instanceof Date && !(value instanceof Timestamp || value instanceof java.sql.Date
+				|| value instanceof java.sql.Time)) {
+			line.append(new Timestamp(((Date) value).getTime()));
+		} else if (value instanceof byte[]) {
+			throw new RepositoryException("Bulk load does not support binary column");
+		} else {
+			appendEscaped(value.toString());
+		}
+	}
+
+	private void appendEscaped(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '\\':
+				line.append("\\\\");
+				break;
+			case '\t':
+				line.append("\\t");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			case '\0':
+				if (!nulAllowed) {
+					throw new RepositoryException("Bulk load to PostgreSQL does not support NUL character in text");
+				}
+				line.append("\\0");
+				break;
+			default:
+				line.append(c);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.sunnysuperman.repository.db;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.List;
+
+import com.sunnysuperman.commons.util.StringUtil;
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Pushes the tab separated rows of {@link BulkLoadInputStream} into a table in
+ * one statement. Driver APIs are called by reflection since the drivers are not
+ * dependencies of this project.
+ */
+abstract class BulkLoader {
+
+	static BulkLoader of(DatabaseDialect dialect) {
+		return dialect == DatabaseDialect.POSTGRESQL ? new PostgreSQLBulkLoader() : new MySQLBulkLoader();
+	}
+
+	/**
+	 * @return number of loaded rows
+	 */
+	abstract long load(Connection conn, String table, List<String> columns, InputStream in) throws SQLException;
+
+	/**
+	 * @return true if the server accepts the escaped NUL character
+	 */
+	abstract boolean isNulAllowed();
+
+	static Object invoke(Class<?> type, String methodName, Object target, Class<?>[] parameterTypes,
+			Object... args) throws SQLException {
+		try {
+			return type.getMethod(methodName, parameterTypes).invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RepositoryException("Failed to invoke " + type.getName() + "." + methodName, e);
+		} catch (ReflectiveOperationException e) {
+			throw new RepositoryException("Failed to invoke " + type.getName() + "." + methodName, e);
+		}
+	}
+
+	static Class<?> findClass(String... classNames) {
+		for (String className : classNames) {
+			try {
+				return Class.forName(className);
+			} catch (ClassNotFoundException e) {
+				// 尝试下一个
+			}
+		}
+		throw new RepositoryException("Bulk load requires one of driver classes " + String.join(",", classNames));
+	}
+
+	/**
+	 * <code>load data local infile</code> fed by
+	 * <code>setLocalInfileInputStream</code>. The connection requires
+	 * allowLoadLocalInfile=true and the server local_infile=ON. Rows with duplicate
+	 * keys are skipped by the server, as with IGNORE. Other warnings (truncated or
+	 * converted values, missing columns) fail the load after the statement, when
+	 * the chunk is already loaded and, outside a transaction, committed.
+	 */
+	private static class MySQLBulkLoader extends BulkLoader {
+		private static final int ER_DUP_ENTRY = 1062;
+		private static final int MAX_REPORTED_WARNINGS = 10;
+
+		@Override
+		long load(Connection conn, String table, List<String> columns, InputStream in) throws SQLException {
+			Class<?> statementType = findClass("com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement");
+			String sql = "load data local infile 'stream' into table " + table
+					+ " character set utf8mb4 fields terminated by '\\t' escaped by '\\\\' lines terminated by '\\n' ("
+					+ StringUtil.join(columns) + ")";
+			try (Statement stmt = conn.createStatement()) {
+				Object mysqlStmt = stmt.unwrap(statementType);
+				invoke(statementType, "setLocalInfileInputStream", mysqlStmt, new Class<?>[] { InputStream.class },
+						in);
+				long loadedRows = stmt.executeUpdate(sql);
+				checkWarnings(table, stmt.getWarnings());
+				return loadedRows;
+			}
+		}
+
+		@Override
+		boolean isNulAllowed() {
+			return true;
+		}
+
+		// 服务端按IGNORE处理，数据被截断或转换时只产生警告，重复键跳过不算失败
+		private static void checkWarnings(String table, SQLWarning warning) {
+			StringBuilder buf = null;
+			int count = 0;
+			for (; warning != null; warning = warning.getNextWarning()) {
+				if (warning.getErrorCode() == ER_DUP_ENTRY) {
+					continue;
+				}
+				if (buf == null) {
+					buf = new StringBuilder("Bulk load into ").append(table).append(" got warnings: ");
+				}
+				if (++count <= MAX_REPORTED_WARNINGS) {
+					buf.append(count > 1 ? "; " : "").append(warning.getMessage());
+				}
+			}
+			if (buf != null) {
+				if (count > MAX_REPORTED_WARNINGS) {
+					buf.append("; ... ").append(count - MAX_REPORTED_WARNINGS).append(" more");
+				}
+				throw new RepositoryException(buf.toString());
+			}
+		}
+
+	}
+
+	/**
+	 * <code>copy ... from stdin</code> through the CopyManager of the connection.
+	 */
+	private static class PostgreSQLBulkLoader extends BulkLoader {
+
+		@Override
+		long load(Connection conn, String table, List<String> columns, InputStream in) throws SQLException {
+			Class<?> connectionType = findClass("org.postgresql.PGConnection");
+			Class<?> copyManagerType = findClass("org.postgresql.copy.CopyManager");
+			String sql = "copy " + table + "(" + StringUtil.join(columns) + ") from stdin";
+			Object copyManager = invoke(connectionType, "getCopyAPI", conn.unwrap(connectionType), new Class<?>[0]);
+			return (Long) invoke(copyManagerType, "copyIn", copyManager,
+					new Class<?>[] { String.class, InputStream.class }, sql, in);
+		}
+
+		@Override
+		boolean isNulAllowed() {
+			return false;
+		}
+
+	}
+
+}
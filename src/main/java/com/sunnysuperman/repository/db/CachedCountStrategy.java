@@ -0,0 +1,92 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches totals by count sql and parameters for a while, so that paging through
+ * a result does not count it again for every page. The total may be stale for
+ * up to the ttl.
+ */
+public class CachedCountStrategy extends ExactCountStrategy {
+	private final long ttlMillis;
+	private final Map<CountKey, CachedCount> cache;
+
+	public CachedCountStrategy(long ttlMillis, int maxEntries) {
+		super();
+		if (ttlMillis <= 0 || maxEntries <= 0) {
+			throw new IllegalArgumentException("ttlMillis and maxEntries should be positive");
+		}
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<CountKey, CachedCount>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CountKey, CachedCount> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	protected int count(PageQuery<?> query) {
+		CountKey key = new CountKey(query.getCountSql(), query.getParams());
+		long now = System.currentTimeMillis();
+		synchronized (cache) {
+			CachedCount cached = cache.get(key);
+			if (cached != null && cached.expireAt > now) {
+				return cached.count;
+			}
+		}
+		int count = query.count();
+		synchronized (cache) {
+			cache.put(key, new CachedCount(count, now + ttlMillis));
+		}
+		return count;
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	private static class CountKey {
+		final String sql;
+		final Object[] params;
+
+		CountKey(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params == null ? new Object[0] : params.clone();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * sql.hashCode() + Arrays.deepHashCode(params);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CountKey)) {
+				return false;
+			}
+			CountKey other = (CountKey) obj;
+			return sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+		}
+	}
+
+	private static class CachedCount {
+		final int count;
+		final long expireAt;
+
+		CachedCount(int count, long expireAt) {
+			this.count = count;
+			this.expireAt = expireAt;
+		}
+	}
+
+}
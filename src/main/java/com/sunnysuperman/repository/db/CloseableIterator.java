@@ -0,0 +1,14 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Iterator;
+
+/**
+ * An iterator holding database resources, which are released once the iterator
+ * is exhausted or closed. Always close it, preferably with try-with-resources.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+	@Override
+	void close();
+
+}
@@ -0,0 +1,54 @@
+package com.sunnysuperman.repository.db;
+
+import java.lang.reflect.Array;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Copies of mutable column values (Date, Calendar, arrays and the column map of
+ * a MultiColumn), so that a copy does not change with the original.
+ */
+final class ColumnValues {
+
+	private ColumnValues() {
+	}
+
+	static Object copy(Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (value instanceof Date) {
+			// 包括java.sql.Timestamp等子类
+			return ((Date) value).clone();
+		}
+		if (value instanceof Calendar) {
+			return ((Calendar) value).clone();
+		}
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			Map<Object, Object> copy = new LinkedHashMap<>(map.size() * 2);
+			for (Entry<?, ?> entry : map.entrySet()) {
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			return copy;
+		}
+		Class<?> type = value.getClass();
+		if (!type.isArray()) {
+			return value;
+		}
+		int length = Array.getLength(value);
+		Object copy = Array.newInstance(type.getComponentType(), length);
+		if (type.getComponentType().isPrimitive()) {
+			System.arraycopy(value, 0, copy, 0, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				Array.set(copy, i, copy(Array.get(value, i)));
+			}
+		}
+		return copy;
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sunnysuperman.commons.page.Page;
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Runs the count query on the given executor while the data query runs on the
+ * calling thread. The count uses its own connection, so inside a transaction
+ * it falls back to the sequential exact count, which sees the caller's
+ * uncommitted writes and does not hold a second connection.
+ * <p>
+ * The count is started before the data query tells whether it is needed, so a
+ * first page shorter than the limit wastes it. Cancelling only skips a count
+ * that has not started yet, a running count query is not interrupted.
+ */
+public class ConcurrentCountStrategy extends ExactCountStrategy {
+	private final Executor executor;
+
+	public ConcurrentCountStrategy(Executor executor) {
+		super();
+		if (executor == null) {
+			throw new IllegalArgumentException("executor");
+		}
+		this.executor = executor;
+	}
+
+	@Override
+	public <T> Page<T> findForPage(PageQuery<T> query) {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return super.findForPage(query);
+		}
+		CompletableFuture<Integer> countFuture = CompletableFuture.supplyAsync(query::count, executor);
+		List<T> items;
+		try {
+			items = query.findItems();
+		} catch (RuntimeException ex) {
+			countFuture.cancel(false);
+			throw ex;
+		}
+		int size = items.size();
+		if (size == 0) {
+			countFuture.cancel(false);
+			return Page.empty(query.getLimit());
+		}
+		if (!requireCount(query, size)) {
+			countFuture.cancel(false);
+			return new Page<>(items, size, query.getOffset(), query.getLimit());
+		}
+		try {
+			size = countFuture.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RepositoryException(ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RepositoryException(ex);
+		}
+		return new Page<>(items, size, query.getOffset(), query.getLimit());
+	}
+
+}
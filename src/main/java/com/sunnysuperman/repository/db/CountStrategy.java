@@ -0,0 +1,18 @@
+package com.sunnysuperman.repository.db;
+
+import com.sunnysuperman.commons.page.Page;
+
+/**
+ * Decides how the total of {@link DBRepository#findForPage} is obtained.
+ *
+ * @see ExactCountStrategy
+ * @see CachedCountStrategy
+ * @see ConcurrentCountStrategy
+ * @see EstimatedCountStrategy
+ * @see HasNextCountStrategy
+ */
+public interface CountStrategy {
+
+	<T> Page<T> findForPage(PageQuery<T> query);
+
+}
@@ -0,0 +1,398 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sunnysuperman.repository.RepositoryException;
+import com.sunnysuperman.repository.db.mapper.LongDBMapper;
+
+/**
+ * Aggregates counter increments in memory and writes them as batched
+ * {@code $inc} updates of {@link DBRepository#updateDoc}. Increments of a
+ * counter, identified by table, key column, key value and counter column, are
+ * summed in a {@link LongAdder} so concurrent increments of a hot row do not
+ * contend on the row lock.
+ * <p>
+ * A background thread flushes every flushInterval, counters of the same row are
+ * written by one statement and statements of the same shape are executed as one
+ * JDBC batch. An increment whose counter has been pending longer than
+ * maxDeltaAge first flushes in the caller thread (outside transactions), so a
+ * failing database surfaces to callers instead of letting deltas pile up
+ * silently. Each batch is written in its own transaction, deltas of a failed
+ * batch are put back with their age and retried by the next flush, deltas of
+ * missing rows are dropped. {@link #get} adds the pending delta to the stored
+ * value. {@link #close()} flushes what is left.
+ */
+public class CounterService implements AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(CounterService.class);
+	private final DBRepository repository;
+	private final long flushIntervalNanos;
+	private final long maxDeltaAgeNanos;
+	private final Map<CounterKey, Cell> cells = new ConcurrentHashMap<>();
+	// 读取持有读锁，刷新持有写锁，避免读到已取出但尚未写入的增量
+	private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+	private final Object flusherMonitor = new Object();
+	private final Thread flusher;
+	private boolean flushRequested;
+	private volatile boolean closed;
+	private volatile PlatformTransactionManager transactionManager;
+
+	public CounterService(DBRepository repository, long flushIntervalMillis, long maxDeltaAgeMillis) {
+		super();
+		if (flushIntervalMillis <= 0 || maxDeltaAgeMillis < flushIntervalMillis) {
+			throw new IllegalArgumentException("Require 0 < flushIntervalMillis <= maxDeltaAgeMillis");
+		}
+		this.repository = Objects.requireNonNull(repository);
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.maxDeltaAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxDeltaAgeMillis);
+		this.flusher = new Thread(this::runFlusher, "counter-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Adds delta to the counter. An exception is only thrown before the delta
+	 * is recorded, so the caller may retry.
+	 */
+	public void increment(String tableName, String keyColumn, Object keyValue, String column, long delta)
+			throws RepositoryException {
+		if (closed) {
+			throw new RepositoryException("CounterService is closed");
+		}
+		if (delta == 0) {
+			return;
+		}
+		CounterKey key = new CounterKey(tableName, keyColumn, Objects.requireNonNull(keyValue), column);
+		Cell cell = getCell(key);
+		long now = System.nanoTime();
+		long since = cell.since.get();
+		if (since != 0 && now - since > maxDeltaAgeNanos) {
+			// 刷新落后(如数据库故障)时，记录增量前由调用方同步刷新，失败则抛出且增量未记录；
+			// 事务内只唤醒刷新线程，调用方事务可能持有计数行的锁，同步刷新会等待自身
+			if (TransactionSynchronizationManager.isActualTransactionActive()) {
+				synchronized (flusherMonitor) {
+					flushRequested = true;
+					flusherMonitor.notifyAll();
+				}
+			} else {
+				flush();
+				cell = getCell(key);
+			}
+		}
+		cell.adder.add(delta);
+		while (cell.dead) {
+			// 拿到的计数器已被刷新移除，取出剩余增量(可能已被刷新取走)转到新的计数器
+			Delta rest = cell.drain();
+			if (rest == null) {
+				return;
+			}
+			cell = getCell(key);
+			cell.putBack(rest);
+		}
+		// 记录增量后不再抛出异常，刷新失败由刷新线程记录
+		cell.since.compareAndSet(0, now);
+	}
+
+	public void increment(String tableName, String keyColumn, Object keyValue, String column)
+			throws RepositoryException {
+		increment(tableName, keyColumn, keyValue, column, 1);
+	}
+
+	/**
+	 * Stored value plus the pending delta, or null if the row does not exist.
+	 * Should be called outside transactions, a transaction snapshot may not see
+	 * deltas flushed after it started.
+	 */
+	public Long get(String tableName, String keyColumn, Object keyValue, String column) throws RepositoryException {
+		CounterKey key = new CounterKey(tableName, keyColumn, Objects.requireNonNull(keyValue), column);
+		String sql = "select " + repository.convertColumnName(column) + " from " + tableName + " where "
+				+ repository.convertColumnName(keyColumn) + "=?";
+		flushLock.readLock().lock();
+		try {
+			Long stored = repository.find(sql, new Object[] { keyValue }, LongDBMapper.getInstance());
+			if (stored == null) {
+				return null;
+			}
+			return stored + getPendingDelta(key);
+		} finally {
+			flushLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes all pending deltas in the caller thread. Batches are written
+	 * independently, the first failure is thrown after the others have been
+	 * tried.
+	 */
+	public void flush() throws RepositoryException {
+		RuntimeException failure;
+		flushLock.writeLock().lock();
+		try {
+			Map<CounterKey, Delta> deltas = drain();
+			if (deltas.isEmpty()) {
+				return;
+			}
+			failure = write(deltas);
+		} finally {
+			flushLock.writeLock().unlock();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Transaction manager of the flushed batches, a
+	 * {@link DataSourceTransactionManager} of the data source of the repository
+	 * by default.
+	 */
+	protected PlatformTransactionManager getTransactionManager() {
+		PlatformTransactionManager tm = transactionManager;
+		if (tm == null) {
+			tm = new DataSourceTransactionManager(repository.getJdbcTemplate().getDataSource());
+			transactionManager = tm;
+		}
+		return tm;
+	}
+
+	/**
+	 * Stops accepting increments and waits until pending deltas are flushed.
+	 */
+	@Override
+	public void close() {
+		synchronized (flusherMonitor) {
+			closed = true;
+			flusherMonitor.notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runFlusher() {
+		boolean exit = false;
+		while (!exit) {
+			synchronized (flusherMonitor) {
+				long deadline = System.nanoTime() + flushIntervalNanos;
+				try {
+					while (!closed && !flushRequested) {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(flusherMonitor, remaining);
+					}
+				} catch (InterruptedException e) {
+					// 被中断时不再接收增量，刷新剩余数据后退出
+					closed = true;
+				}
+				flushRequested = false;
+				exit = closed;
+			}
+			try {
+				flush();
+			} catch (RuntimeException ex) {
+				LOG.error("Failed to flush counters", ex);
+			}
+		}
+	}
+
+	private Cell getCell(CounterKey key) {
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			cell = cells.computeIfAbsent(key, k -> new Cell());
+		}
+		return cell;
+	}
+
+	private long getPendingDelta(CounterKey key) {
+		Cell cell = cells.get(key);
+		return cell == null ? 0 : cell.adder.sum();
+	}
+
+	private Map<CounterKey, Delta> drain() {
+		Map<CounterKey, Delta> deltas = new HashMap<>();
+		for (Entry<CounterKey, Cell> entry : cells.entrySet()) {
+			Cell cell = entry.getValue();
+			Delta delta = cell.drain();
+			if (delta == null && cells.remove(entry.getKey(), cell)) {
+				// 两次刷新之间没有增量的计数器移除，避免无限增长；
+				// 标记后再取一次，之后的增量由拿到它的线程转到新的计数器
+				cell.dead = true;
+				delta = cell.drain();
+			}
+			if (delta != null) {
+				deltas.put(entry.getKey(), delta);
+			}
+		}
+		return deltas;
+	}
+
+	private RuntimeException write(Map<CounterKey, Delta> deltas) {
+		// 同一行的计数器合并为一条$inc更新
+		Map<RowKey, Map<String, Object>> rows = new LinkedHashMap<>();
+		for (Entry<CounterKey, Delta> entry : deltas.entrySet()) {
+			CounterKey key = entry.getKey();
+			rows.computeIfAbsent(new RowKey(key.tableName, key.keyColumn, key.keyValue), k -> new TreeMap<>())
+					.put(key.column, entry.getValue().value);
+		}
+		// 相同形态的语句合并为一次JDBC批量
+		Map<String, List<Object[]>> batches = new LinkedHashMap<>();
+		Map<String, List<RowKey>> batchRows = new HashMap<>();
+		for (Entry<RowKey, Map<String, Object>> entry : rows.entrySet()) {
+			RowKey row = entry.getKey();
+			Map<String, Object> doc = new HashMap<>(1);
+			doc.put("$inc", entry.getValue());
+			SqlAndParams sp = repository.getUpdateDialect(row.tableName, doc, new String[] { row.keyColumn },
+					new Object[] { row.keyValue });
+			batches.computeIfAbsent(sp.getSql(), k -> new ArrayList<>()).add(sp.getParams());
+			batchRows.computeIfAbsent(sp.getSql(), k -> new ArrayList<>()).add(row);
+		}
+		// 每个批量单独事务，失败时整体回滚，放回的增量不会重复累加
+		TransactionTemplate tx = new TransactionTemplate(getTransactionManager());
+		tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		RuntimeException failure = null;
+		for (Entry<String, List<Object[]>> batch : batches.entrySet()) {
+			List<RowKey> batchRowList = batchRows.get(batch.getKey());
+			int[] results;
+			try {
+				results = tx.execute(status -> repository.executeBatch(batch.getKey(), batch.getValue()));
+			} catch (RuntimeException ex) {
+				// 放回增量并保留其时间，下次刷新重试
+				for (RowKey row : batchRowList) {
+					for (String column : rows.get(row).keySet()) {
+						CounterKey key = new CounterKey(row.tableName, row.keyColumn, row.keyValue, column);
+						cells.computeIfAbsent(key, k -> new Cell()).putBack(deltas.get(key));
+					}
+				}
+				if (failure == null) {
+					failure = ex;
+				} else {
+					failure.addSuppressed(ex);
+				}
+				continue;
+			}
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == 0) {
+					RowKey row = batchRowList.get(i);
+					LOG.warn("Dropped counter deltas of missing row {}.{}={}", row.tableName, row.keyColumn,
+							row.keyValue);
+				}
+			}
+		}
+		return failure;
+	}
+
+	private static class Delta {
+		final long value;
+		final long since;
+
+		Delta(long value, long since) {
+			super();
+			this.value = value;
+			this.since = since;
+		}
+
+		Delta merge(Delta other) {
+			return new Delta(value + other.value, since - other.since <= 0 ? since : other.since);
+		}
+	}
+
+	private static class Cell {
+		final LongAdder adder = new LongAdder();
+		// 最早一次未刷新增量的时间，0表示没有
+		final AtomicLong since = new AtomicLong();
+		// 已从cells移除，不再被刷新
+		volatile boolean dead;
+
+		// 已移除的计数器可能由刷新线程和增量线程同时取出，需互斥
+		synchronized Delta drain() {
+			long first = since.getAndSet(0);
+			// 不用sumThenReset，取和后减去，并发的增量不会丢失
+			long sum = adder.sum();
+			if (sum == 0) {
+				return null;
+			}
+			adder.add(-sum);
+			return new Delta(sum, first == 0 ? System.nanoTime() : first);
+		}
+
+		void putBack(Delta delta) {
+			adder.add(delta.value);
+			since.updateAndGet(current -> current == 0 || delta.since - current < 0 ? delta.since : current);
+		}
+	}
+
+	private static class RowKey {
+		final String tableName;
+		final String keyColumn;
+		final Object keyValue;
+
+		RowKey(String tableName, String keyColumn, Object keyValue) {
+			super();
+			this.tableName = tableName;
+			this.keyColumn = keyColumn;
+			this.keyValue = keyValue;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(tableName, keyColumn, keyValue);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof RowKey)) {
+				return false;
+			}
+			RowKey other = (RowKey) obj;
+			return tableName.equals(other.tableName) && keyColumn.equals(other.keyColumn)
+					&& keyValue.equals(other.keyValue);
+		}
+	}
+
+	private static class CounterKey extends RowKey {
+		final String column;
+
+		CounterKey(String tableName, String keyColumn, Object keyValue, String column) {
+			super(Objects.requireNonNull(tableName), Objects.requireNonNull(keyColumn), keyValue);
+			this.column = Objects.requireNonNull(column);
+		}
+
+		@Override
+		public int hashCode() {
+			return super.hashCode() * 31 + column.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CounterKey && super.equals(obj) && column.equals(((CounterKey) obj).column);
+		}
+	}
+
+}
@@ -7,13 +7,31 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.sunnysuperman.commons.page.Page;
 import com.sunnysuperman.commons.page.PageRequest;
@@ -23,10 +41,19 @@ import com.sunnysuperman.commons.util.StringUtil;
 import com.sunnysuperman.repository.CRUDRepository;
 import com.sunnysuperman.repository.RepositoryException;
 import com.sunnysuperman.repository.SaveResult;
+import com.sunnysuperman.repository.annotation.Id;
 import com.sunnysuperman.repository.annotation.IdStrategy;
+import com.sunnysuperman.repository.db.cache.EntityCache;
+import com.sunnysuperman.repository.db.cache.LocalEntityCache;
+import com.sunnysuperman.repository.db.id.HiLoIdGenerator;
+import com.sunnysuperman.repository.db.id.IdGenerator;
+import com.sunnysuperman.repository.db.id.SequenceIdGenerator;
+import com.sunnysuperman.repository.db.id.SnowflakeIdGenerator;
 import com.sunnysuperman.repository.db.mapper.DBMapper;
 import com.sunnysuperman.repository.db.mapper.EntityMapper;
 import com.sunnysuperman.repository.db.mapper.ObjectDBMapper;
+import com.sunnysuperman.repository.exception.BatchPartitionRepositoryException;
+import com.sunnysuperman.repository.exception.BatchPartitionRepositoryException.FailedPartition;
 import com.sunnysuperman.repository.exception.StaleEntityRepositoryException;
 
 public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRUDRepository<T, I> {
@@ -34,6 +61,13 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 	private DBMapper<T> entityMapper;
 	private EntityMeta entityMeta;
 	private Map<String, String> fieldColumnMapping = new ConcurrentHashMap<>();
+	private final AtomicLong cacheGeneration = new AtomicLong();
+	private volatile FindByIdBatcher<I, T> findByIdBatcher;
+	private volatile DirtyTracker dirtyTracker;
+	private volatile PlatformTransactionManager chunkTransactionManager;
+	private volatile IdGenerator idGenerator;
+	// 驱动改写批量语句时upsert批量无逐行行数，之后改为先查已存在的id
+	private volatile boolean upsertRowCountsUnavailable;
 
 	@SuppressWarnings("unchecked")
 	protected Class<T> getEntityClass() {
@@ -46,7 +80,9 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 
 	protected final DBMapper<T> getEntityMapper() {
 		if (entityMapper == null) {
-			entityMapper = new EntityMapper<>(getEntityClass(), getDefaultFieldConverter());
+			EntityMapper<T> mapper = new EntityMapper<>(getEntityClass(), getDefaultFieldConverter());
+			DirtyTracker tracker = getDirtyTracker();
+			entityMapper = tracker == null ? mapper : new DirtyTrackingMapper<>(mapper, tracker);
 		}
 		return entityMapper;
 	}
@@ -59,6 +95,14 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return getEntityMeta().getTableName();
 	}
 
+	/**
+	 * "select ... from table" of the columns of the fields and the id, to be
+	 * completed with where/order by clauses. Null fields select all the columns.
+	 */
+	protected final String getSelectSql(Set<String> fields) {
+		return getEntityMeta().getSelectSql(fields, getDefaultFieldConverter());
+	}
+
 	protected final String getColumnsByFields(String fields) {
 		if (fields == null) {
 			throw new IllegalArgumentException("fields");
@@ -92,6 +136,226 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return BuildInDefautFieldConverter.getInstance();
 	}
 
+	/**
+	 * Max number of ids in one IN clause of findByIds/deleteByIds, more ids are
+	 * split into chunks.
+	 */
+	protected int getIdsChunkSize() {
+		return 1000;
+	}
+
+	/**
+	 * Rounds the number of values of IN clauses up so that statements of
+	 * different sizes share a few cached shapes, defaults to
+	 * {@link InClauseBucketing#POWER_OF_TWO}.
+	 */
+	protected InClauseBucketing getInClauseBucketing() {
+		return InClauseBucketing.POWER_OF_TWO;
+	}
+
+	/**
+	 * Executor to run chunks concurrently, each chunk on its own connection. Null
+	 * (default) runs chunks one after another. Chunks always run one after another
+	 * inside a transaction.
+	 */
+	protected Executor getParallelExecutor() {
+		return null;
+	}
+
+	/**
+	 * Window in microseconds in which concurrent findById calls outside a
+	 * transaction are merged into one IN query. The first caller waits for the
+	 * window, so it adds up to this latency. 0 (default) disables it.
+	 */
+	protected long getFindByIdCoalescingWindowMicros() {
+		return 0;
+	}
+
+	/**
+	 * Max number of distinct ids merged into one query, a full batch is executed
+	 * without waiting for the rest of the window.
+	 */
+	protected int getFindByIdCoalescingMaxBatchSize() {
+		return 100;
+	}
+
+	/**
+	 * Default mode of updateBatch. With {@link UpdateBatchMode#CASE_WHEN} the
+	 * result counts matched rows only if the connection reports found rows
+	 * (CLIENT_FOUND_ROWS, default of Connector/J), otherwise rows whose values did
+	 * not change make updateBatch return false.
+	 */
+	protected UpdateBatchMode getUpdateBatchMode() {
+		return UpdateBatchMode.JDBC_BATCH;
+	}
+
+	/**
+	 * Max entities of one {@link UpdateBatchMode#CASE_WHEN} statement, further
+	 * capped by the 65535 placeholders limit.
+	 */
+	protected int getCaseWhenUpdateChunkSize() {
+		return 500;
+	}
+
+	/**
+	 * Number of partitions insertBatch splits a list into, each inserted
+	 * concurrently on its own connection by {@link #getParallelExecutor()}. 1
+	 * (default) inserts the list as one batch, as does a transaction or a null
+	 * executor. A failure of some partitions is reported by
+	 * {@link BatchPartitionRepositoryException}, the other partitions are written.
+	 */
+	protected int getInsertBatchParallelism() {
+		return 1;
+	}
+
+	/**
+	 * Worker id of {@link IdStrategy#SNOWFLAKE} ids, must be unique per node
+	 * (e.g. from configuration). Null by default, inserting SNOWFLAKE entities
+	 * then fails instead of generating ids that collide across nodes.
+	 */
+	protected Integer getSnowflakeWorkerId() {
+		return null;
+	}
+
+	/**
+	 * Generator of {@link IdStrategy#SNOWFLAKE}, {@link IdStrategy#HILO} and
+	 * {@link IdStrategy#SEQUENCE} ids, created once per repository. Defaults are
+	 * {@link SnowflakeIdGenerator#of(int)} of {@link #getSnowflakeWorkerId()},
+	 * {@link HiLoIdGenerator} of table id_segment with blocks of 1000, and
+	 * {@link SequenceIdGenerator} of the dialect.
+	 */
+	protected IdGenerator createIdGenerator(IdStrategy strategy) {
+		String sequence = getEntityMeta().getIdInfo().sequence();
+		switch (strategy) {
+		case SNOWFLAKE:
+			Integer workerId = getSnowflakeWorkerId();
+			if (workerId == null) {
+				throw new RepositoryException(
+						"Require getSnowflakeWorkerId() to generate SNOWFLAKE id of " + getTable());
+			}
+			return SnowflakeIdGenerator.of(workerId);
+		case HILO:
+			return new HiLoIdGenerator(getJdbcTemplate(), "id_segment", sequence.isEmpty() ? getTable() : sequence,
+					1000);
+		case SEQUENCE:
+			return new SequenceIdGenerator(getJdbcTemplate(), getDatabaseDialect(),
+					sequence.isEmpty() ? getTable() + "_seq" : sequence);
+		default:
+			throw new RepositoryException("No id generator of " + strategy);
+		}
+	}
+
+	/**
+	 * Transaction manager of the chunks of insertBatch/updateBatch from an
+	 * Iterator with commitPerChunk, a {@link DataSourceTransactionManager} of the
+	 * data source of {@link #getJdbcTemplate()} by default.
+	 */
+	protected PlatformTransactionManager getChunkTransactionManager() {
+		PlatformTransactionManager transactionManager = chunkTransactionManager;
+		if (transactionManager == null) {
+			transactionManager = new DataSourceTransactionManager(getJdbcTemplate().getDataSource());
+			chunkTransactionManager = transactionManager;
+		}
+		return transactionManager;
+	}
+
+	/**
+	 * Rows of one bulk load statement (and transaction outside a transaction).
+	 */
+	protected int getBulkLoadChunkRows() {
+		return 100000;
+	}
+
+	/**
+	 * Whether loaded entities are tracked so that update/updateBatch only write
+	 * the columns changed since the entity was loaded (or last updated). Entities
+	 * updated with nothing changed are skipped, untracked entities (e.g. created
+	 * by the caller) still update all columns.
+	 */
+	protected boolean useDirtyTracking() {
+		return false;
+	}
+
+	/**
+	 * Second-level cache of entities by id, used by findById/findByIds and
+	 * invalidated by the writes of this repository. Null (default) disables it.
+	 * Return the same instance on every call, e.g. a {@link LocalEntityCache} held
+	 * in a field. Writes by custom sql should call {@link #invalidateCache}.
+	 */
+	protected EntityCache<I, T> getEntityCache() {
+		return null;
+	}
+
+	/**
+	 * Removes the entities from the cache and the current {@link IdentityScope},
+	 * and again from the cache after the current transaction completes if there
+	 * is one.
+	 */
+	protected final void invalidateCache(Collection<I> ids) {
+		IdentityScope scope = IdentityScope.current();
+		if (scope != null) {
+			ids.forEach(id -> scope.evict(getEntityClass(), id));
+		}
+		EntityCache<I, T> cache = getEntityCache();
+		if (cache == null) {
+			return;
+		}
+		cacheGeneration.incrementAndGet();
+		cache.invalidateAll(ids);
+		CacheTransaction tx = getCacheTransaction(true);
+		if (tx != null) {
+			tx.invalidate(ids);
+		}
+	}
+
+	protected final void invalidateCache() {
+		IdentityScope scope = IdentityScope.current();
+		if (scope != null) {
+			scope.evictAll(getEntityClass());
+		}
+		EntityCache<I, T> cache = getEntityCache();
+		if (cache == null) {
+			return;
+		}
+		cacheGeneration.incrementAndGet();
+		cache.invalidateAll();
+		CacheTransaction tx = getCacheTransaction(true);
+		if (tx != null) {
+			tx.invalidateAll();
+		}
+	}
+
+	/**
+	 * Whether save() of entities with {@link IdStrategy#PROVIDED} id issues one
+	 * native upsert of {@link #getDatabaseDialect()} instead of an update followed
+	 * by an insert when no row matched. Versioned entities always take the two
+	 * statements path. save() and saveBatch() both use the native statement.
+	 * <p>
+	 * MySQL tells an insert from an update by the row count only with
+	 * {@link #useAffectedRows()}, otherwise the ids that exist are looked up
+	 * before the upsert (a row inserted or deleted concurrently in between is
+	 * reported wrongly). Note that ON DUPLICATE KEY UPDATE of MySQL fires on any
+	 * unique key, not only the id: an entity whose id is new but whose other
+	 * unique column matches an existing row updates that row, where the update
+	 * then insert path would fail with a duplicate key error.
+	 */
+	protected boolean useNativeUpsert() {
+		return false;
+	}
+
+	/**
+	 * Whether the MySQL connection reports affected rows (useAffectedRows=true)
+	 * rather than found rows (CLIENT_FOUND_ROWS, the default of Connector/J). Only
+	 * then an upsert returns 1 for an insert and 2 or 0 for an update; with found
+	 * rows an unchanged existing row also returns 1. The counts of a batch must
+	 * be reported per statement: once the driver answers SUCCESS_NO_INFO (e.g.
+	 * rewriteBatchedStatements), later upsert batches look up the existing ids
+	 * first and the rows of that batch are reported as updated.
+	 */
+	protected boolean useAffectedRows() {
+		return false;
+	}
+
 	@Override
 	public SaveResult save(T entity) throws RepositoryException {
 		EntityMeta meta = getEntityMeta();
@@ -101,6 +365,9 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 			return SaveResult.RES_INSERTED;
 		}
 		boolean upsert = meta.getIdInfo().strategy() == IdStrategy.PROVIDED;
+		if (upsert && useNativeUpsert() && meta.getVersionField() == null) {
+			return doUpsert(Collections.singletonList(entity))[0];
+		}
 		if (upsert) {
 			if (doUpdate(Collections.singletonList(entity), null, true)) {
 				return SaveResult.RES_UPDATED;
@@ -114,23 +381,149 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return SaveResult.RES_NONE;
 	}
 
+	/**
+	 * Batch version of {@link #save(Object)}. Entities without id are inserted by
+	 * {@link #insertBatch(List)}, entities with id are updated in one batch (or
+	 * upserted when {@link #useNativeUpsert()} is on), and PROVIDED-id entities
+	 * that matched no row are inserted afterwards.
+	 *
+	 * @return save result of each entity, in the same order as entityList
+	 */
+	@Override
+	public List<SaveResult> saveBatch(List<T> entityList) throws RepositoryException {
+		if (entityList.isEmpty()) {
+			return Collections.emptyList();
+		}
+		if (entityList.size() == 1) {
+			return Collections.singletonList(save(entityList.get(0)));
+		}
+		EntityMeta meta = getEntityMeta();
+		SaveResult[] results = new SaveResult[entityList.size()];
+		// 一次遍历按是否有id分组
+		List<T> insertList = new ArrayList<>();
+		List<Integer> insertIndexes = new ArrayList<>();
+		List<T> updateList = new ArrayList<>();
+		List<Integer> updateIndexes = new ArrayList<>();
+		for (int i = 0; i < entityList.size(); i++) {
+			T entity = entityList.get(i);
+			if (meta.getEntityId(entity) == null) {
+				insertList.add(entity);
+				insertIndexes.add(i);
+			} else {
+				updateList.add(entity);
+				updateIndexes.add(i);
+			}
+		}
+		if (!updateList.isEmpty()) {
+			boolean upsert = meta.getIdInfo().strategy() == IdStrategy.PROVIDED;
+			if (upsert && useNativeUpsert() && meta.getVersionField() == null) {
+				SaveResult[] upsertResults = doUpsert(updateList);
+				for (int i = 0; i < upsertResults.length; i++) {
+					results[updateIndexes.get(i)] = upsertResults[i];
+				}
+			} else {
+				int[] updatedRows = null;
+				try {
+					updatedRows = executeUpdate(updateList, null, upsert, true);
+				} finally {
+					invalidateCache(getEntityIds(updateList));
+				}
+				List<T> updated = new ArrayList<>(updateList.size());
+				for (int i = 0; i < updatedRows.length; i++) {
+					T entity = updateList.get(i);
+					int index = updateIndexes.get(i);
+					if (updatedRows[i] > 0) {
+						updated.add(entity);
+						results[index] = SaveResult.RES_UPDATED;
+					} else if (upsert) {
+						// 未更新到记录，按save()的语义改为插入
+						insertList.add(entity);
+						insertIndexes.add(index);
+					} else {
+						results[index] = SaveResult.RES_NONE;
+					}
+				}
+				putIdentityScope(updated);
+				DirtyTracker tracker = getDirtyTracker();
+				if (tracker != null) {
+					updated.forEach(tracker::snapshot);
+				}
+			}
+		}
+		if (!insertList.isEmpty()) {
+			insertBatch(insertList);
+			for (Integer index : insertIndexes) {
+				results[index] = SaveResult.RES_INSERTED;
+			}
+		}
+		return Arrays.asList(results);
+	}
+
 	@Override
 	public void insert(T entity) throws RepositoryException {
 		doInsert(entity);
+		putIdentityScope(Collections.singletonList(entity));
 	}
 
 	@Override
 	public void insertBatch(List<T> entityList) throws RepositoryException {
 		if (entityList.size() <= 1) {
-			doInsert(entityList.get(0));
+			insert(entityList.get(0));
 			return;
 		}
+		int parallelism = Math.min(getInsertBatchParallelism(), entityList.size());
+		Executor executor = getParallelExecutor();
+		if (parallelism <= 1 || executor == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+			doInsertBatch(entityList);
+		} else {
+			doInsertBatchInParallel(entityList, parallelism, executor);
+		}
+		putIdentityScope(entityList);
+	}
+
+	private void doInsertBatchInParallel(List<T> entityList, int parallelism, Executor executor) {
+		int partitionSize = (entityList.size() + parallelism - 1) / parallelism;
+		List<int[]> ranges = new ArrayList<>(parallelism);
+		List<CompletableFuture<Void>> futures = new ArrayList<>(parallelism);
+		for (int from = 0; from < entityList.size(); from += partitionSize) {
+			int to = Math.min(from + partitionSize, entityList.size());
+			// 每个分区在各自的连接上执行，生成ID按分区内的顺序回传
+			List<T> partition = entityList.subList(from, to);
+			ranges.add(new int[] { from, to });
+			futures.add(CompletableFuture.runAsync(() -> doInsertBatch(partition), executor));
+		}
+		List<FailedPartition> failedPartitions = new ArrayList<>(0);
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				failedPartitions.add(new FailedPartition(ranges.get(i)[0], ranges.get(i)[1], cause));
+			}
+		}
+		if (!failedPartitions.isEmpty()) {
+			throw new BatchPartitionRepositoryException("Failed to insert " + failedPartitions.size() + " of "
+					+ futures.size() + " partitions of " + getEntityMeta().getTableName(), failedPartitions);
+		}
+	}
+
+	private void doInsertBatch(List<T> entityList) {
 		EntityMeta meta = getEntityMeta();
 		DefaultFieldConverter converter = getDefaultFieldConverter();
+		assignIds(entityList);
 		String sql = meta.getInsertSql(entityList.get(0), converter);
 		SaveParams insertParams = meta.getInsertParams(entityList, converter);
 		Class<?> generatedIdClass = meta.findGeneratedIdFieldType();
-		if (generatedIdClass == null) {
+		if (useMultiRowInsert()) {
+			List<?> generatedIds = executeMultiRowInsert(sql, insertParams.getParams(), generatedIdClass);
+			// 生成ID回传
+			for (int i = 0; i < generatedIds.size(); i++) {
+				meta.setEntityId(entityList.get(i), generatedIds.get(i), converter);
+			}
+		} else if (generatedIdClass == null) {
 			executeBatch(sql, insertParams.getParams());
 		} else {
 			List<?> generatedIds = getJdbcTemplate().execute(new GeneratKeysPreparedStatementCreator(sql),
@@ -151,6 +544,119 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		}
 	}
 
+	/**
+	 * Loads the entities with MySQL <code>load data local infile</code> or
+	 * PostgreSQL <code>copy from stdin</code> of {@link #getDatabaseDialect()},
+	 * {@link #getBulkLoadChunkRows()} rows per statement. Rows are encoded as they
+	 * are read, so memory does not grow with the number of entities. Outside a
+	 * transaction each chunk is committed on its own.
+	 * <p>
+	 * Ids of {@link IdStrategy#INCREMENT} are generated by the database and not
+	 * written back, entities are neither cached nor put into IdentityScope. MySQL
+	 * requires allowLoadLocalInfile=true on the connection.
+	 *
+	 * @return number of loaded rows
+	 */
+	public long bulkLoad(Iterator<T> entities) throws RepositoryException {
+		if (!entities.hasNext()) {
+			return 0;
+		}
+		EntityMeta meta = getEntityMeta();
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		T first = entities.next();
+		assignIds(Collections.singletonList(first));
+		List<String> columns = meta.getBulkLoadColumns(first, converter);
+		Iterator<Object[]> rows = new Iterator<Object[]>() {
+			private T next = first;
+
+			@Override
+			public boolean hasNext() {
+				return next != null || entities.hasNext();
+			}
+
+			@Override
+			public Object[] next() {
+				T entity = next != null ? next : entities.next();
+				next = null;
+				assignIds(Collections.singletonList(entity));
+				return meta.getBulkLoadRow(entity, converter);
+			}
+		};
+		BulkLoader loader = BulkLoader.of(getDatabaseDialect());
+		int chunkRows = Math.max(1, getBulkLoadChunkRows());
+		long loadedRows = 0;
+		while (rows.hasNext()) {
+			BulkLoadInputStream in = new BulkLoadInputStream(rows, columns.size(), chunkRows, loader.isNulAllowed());
+			loadedRows += getJdbcTemplate().execute(
+					(ConnectionCallback<Long>) conn -> loader.load(conn, meta.getTableName(), columns, in));
+		}
+		return loadedRows;
+	}
+
+	/**
+	 * Same as {@link #bulkLoad(Iterator)}, the stream is closed afterwards.
+	 */
+	public long bulkLoad(Stream<T> entities) throws RepositoryException {
+		try (Stream<T> stream = entities) {
+			return bulkLoad(stream.iterator());
+		}
+	}
+
+	/**
+	 * Inserts the entities by {@link #insertBatch(List)} of at most batchSize
+	 * entities each, so only one chunk is serialized at a time. Generated ids and
+	 * versions are written back chunk by chunk.
+	 *
+	 * @param commitPerChunk run each chunk in its own transaction
+	 *                       (REQUIRES_NEW) of {@link #getChunkTransactionManager()}
+	 * @return number of inserted entities
+	 */
+	public int insertBatch(Iterator<T> entities, int batchSize, boolean commitPerChunk) throws RepositoryException {
+		int[] inserted = { 0 };
+		forEachChunk(entities, batchSize, commitPerChunk, chunk -> {
+			insertBatch(chunk);
+			inserted[0] += chunk.size();
+			return true;
+		});
+		return inserted[0];
+	}
+
+	/**
+	 * Same as {@link #insertBatch(Iterator, int, boolean)}, the stream is closed
+	 * afterwards.
+	 */
+	public int insertBatch(Stream<T> entities, int batchSize, boolean commitPerChunk) throws RepositoryException {
+		try (Stream<T> stream = entities) {
+			return insertBatch(stream.iterator(), batchSize, commitPerChunk);
+		}
+	}
+
+	/**
+	 * Updates the entities by {@link #updateBatch(List, Set)} of at most batchSize
+	 * entities each, versions are written back chunk by chunk.
+	 *
+	 * @param fields         null to update all updatable fields
+	 * @param commitPerChunk run each chunk in its own transaction
+	 *                       (REQUIRES_NEW) of {@link #getChunkTransactionManager()}
+	 * @return whether all entities were updated
+	 */
+	public boolean updateBatch(Iterator<T> entities, Set<String> fields, int batchSize, boolean commitPerChunk)
+			throws RepositoryException {
+		return forEachChunk(entities, batchSize, commitPerChunk,
+				chunk -> doUpdate(chunk, fields, false, getUpdateBatchMode()));
+	}
+
+	/**
+	 * Same as {@link #updateBatch(Iterator, Set, int, boolean)}, the stream is
+	 * closed afterwards.
+	 */
+	public boolean updateBatch(Stream<T> entities, Set<String> fields, int batchSize, boolean commitPerChunk)
+			throws RepositoryException {
+		try (Stream<T> stream = entities) {
+			return updateBatch(stream.iterator(), fields, batchSize, commitPerChunk);
+		}
+	}
+
 	@Override
 	public boolean update(T entity) throws RepositoryException {
 		return doUpdate(Collections.singletonList(entity), null, false);
@@ -163,12 +669,21 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 
 	@Override
 	public boolean updateBatch(List<T> entityList) throws RepositoryException {
-		return doUpdate(entityList, null, false);
+		return doUpdate(entityList, null, false, getUpdateBatchMode());
 	}
 
 	@Override
 	public boolean updateBatch(List<T> entityList, Set<String> fields) throws RepositoryException {
-		return doUpdate(entityList, fields, false);
+		return doUpdate(entityList, fields, false, getUpdateBatchMode());
+	}
+
+	/**
+	 * Same as {@link #updateBatch(List, Set)} with the given mode instead of
+	 * {@link #getUpdateBatchMode()}.
+	 */
+	public boolean updateBatch(List<T> entityList, Set<String> fields, UpdateBatchMode mode)
+			throws RepositoryException {
+		return doUpdate(entityList, fields, false, mode);
 	}
 
 	@Override
@@ -189,8 +704,22 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 			return doDeleteById(ids.iterator().next()) ? 1 : 0;
 		}
 		EntityMeta meta = getEntityMeta();
-		SqlAndParams sqlAndParams = meta.getDeleteByIdSqlAndParams(ids);
-		return execute(sqlAndParams.getSql(), sqlAndParams.getParams());
+		try {
+			List<Integer> deletedRows = executeInChunks(ids, chunk -> {
+				SqlAndParams sqlAndParams = meta.getDeleteByIdSqlAndParams(chunk, getInClauseBucketing());
+				return execute(sqlAndParams.getSql(), sqlAndParams.getParams());
+			});
+			return deletedRows.stream().mapToInt(Integer::intValue).sum();
+		} finally {
+			invalidateCache(ids);
+		}
+	}
+
+	/**
+	 * Same as {@link #deleteByIds(Collection)} for entities with Long id.
+	 */
+	public int deleteByIds(long[] ids) throws RepositoryException {
+		return deleteByIds(toIds(ids));
 	}
 
 	@Override
@@ -204,23 +733,45 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 			return doDelete(entityList.get(0));
 		}
 		EntityMeta meta = getEntityMeta();
-		SqlAndBatchParams sqlAndParams = meta.getDeleteByEntityListSqlAndParams(entityList);
-		int[] result = executeBatch(sqlAndParams.getSql(), sqlAndParams.getParams());
-		List<Object> badIds = null;
-		for (int i = 0; i < result.length; i++) {
-			int deletedRow = result[i];
-			if (deletedRow != 1) {
-				if (badIds == null) {
-					badIds = new ArrayList<>(Math.min(result.length, 3));
+		// 重复的id只删除一次，其余视为删除失败
+		Map<Object, T> distinctEntities = new LinkedHashMap<>();
+		List<Object> badIds = new ArrayList<>(0);
+		for (T entity : entityList) {
+			Object id = meta.getEntityId(entity);
+			if (distinctEntities.putIfAbsent(id, entity) != null) {
+				badIds.add(id);
+			}
+		}
+		List<T> distinctList = new ArrayList<>(distinctEntities.values());
+		int chunkSize = Math.min(getIdsChunkSize(),
+				MultiRowInsert.MAX_PLACEHOLDERS / (meta.getVersionField() == null ? 1 : 2));
+		int notFound = 0;
+		try {
+			for (int from = 0; from < distinctList.size(); from += chunkSize) {
+				List<T> chunk = distinctList.subList(from, Math.min(from + chunkSize, distinctList.size()));
+				SqlAndParams sqlAndParams = meta.getDeleteByEntitiesSqlAndParams(chunk, getInClauseBucketing());
+				int failed = chunk.size() - execute(sqlAndParams.getSql(), sqlAndParams.getParams());
+				if (failed == 0) {
+					continue;
+				}
+				if (meta.getVersionField() == null) {
+					notFound += failed;
+					continue;
 				}
-				badIds.add(meta.getEntityId(entityList.get(i)));
+				// 删除行数不符时才回查，仍存在的行即版本不匹配
+				List<Object> staleIds = doFindByIds(getEntityIds(chunk), Collections.emptySet()).stream()
+						.map(meta::getEntityId).collect(Collectors.toList());
+				badIds.addAll(staleIds);
+				notFound += failed - staleIds.size();
 			}
+		} finally {
+			invalidateCache(getEntityIds(entityList));
 		}
-		boolean success = badIds == null;
+		boolean success = badIds.isEmpty() && notFound == 0;
 		if (!success && meta.getVersionField() != null) {
 			throw new StaleEntityRepositoryException("Failed to delete entity for " + entityList.get(0).getClass() + "/"
 					+ badIds.stream().map(Object::toString).collect(Collectors.joining(","))
-					+ ", maybe entity is stale");
+					+ (notFound > 0 ? " (" + notFound + " not found)" : "") + ", maybe entity is stale");
 		}
 		return success;
 	}
@@ -234,7 +785,38 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 	@Override
 	public T findById(I id) throws RepositoryException {
 		Objects.requireNonNull(id);
-		return find(getEntityMeta().getFindByIdSql(), new Object[] { id }, getEntityMapper());
+		IdentityScope scope = IdentityScope.current();
+		if (scope == null) {
+			return doFindByIdCacheAware(id);
+		}
+		T entity = scope.get(getEntityClass(), id);
+		if (entity == null) {
+			entity = doFindByIdCacheAware(id);
+			if (entity != null) {
+				entity = scope.putIfAbsent(getEntityClass(), id, entity);
+			}
+		}
+		return entity;
+	}
+
+	private T doFindByIdCacheAware(I id) {
+		EntityCache<I, T> cache = getEntityCache();
+		if (cache == null) {
+			return loadById(id);
+		}
+		CacheTransaction tx = getCacheTransaction(false);
+		if (tx == null || !tx.isInvalidated(id)) {
+			T cached = cache.get(id);
+			if (cached != null) {
+				return copyEntity(cached);
+			}
+		}
+		long generation = cacheGeneration.get();
+		T entity = loadById(id);
+		if (entity != null) {
+			putCache(cache, Collections.singletonList(entity), generation);
+		}
+		return entity;
 	}
 
 	@Override
@@ -246,16 +828,80 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return entity;
 	}
 
+	/**
+	 * Same as {@link #findByIds(Collection)} for entities with Long id.
+	 */
+	public List<T> findByIds(long[] ids) throws RepositoryException {
+		return findByIds(toIds(ids));
+	}
+
 	@Override
 	public List<T> findByIds(Collection<I> ids) throws RepositoryException {
+		IdentityScope scope = IdentityScope.current();
+		if (scope == null) {
+			return doFindByIdsCacheAware(ids);
+		}
+		Set<I> missedIds = new LinkedHashSet<>(ids);
+		List<T> list = new ArrayList<>(missedIds.size());
+		for (Iterator<I> iter = missedIds.iterator(); iter.hasNext();) {
+			T entity = scope.get(getEntityClass(), iter.next());
+			if (entity != null) {
+				list.add(entity);
+				iter.remove();
+			}
+		}
+		if (!missedIds.isEmpty()) {
+			EntityMeta meta = getEntityMeta();
+			for (T entity : doFindByIdsCacheAware(missedIds)) {
+				list.add(scope.putIfAbsent(getEntityClass(), meta.getEntityId(entity), entity));
+			}
+		}
+		return list;
+	}
+
+	private List<T> doFindByIdsCacheAware(Collection<I> ids) {
+		EntityCache<I, T> cache = getEntityCache();
+		if (cache == null) {
+			return doFindByIds(ids, null);
+		}
+		Set<I> missedIds = new LinkedHashSet<>(ids);
+		CacheTransaction tx = getCacheTransaction(false);
+		Map<I, T> hits = cache.getAll(tx == null ? missedIds
+				: missedIds.stream().filter(id -> !tx.isInvalidated(id)).collect(Collectors.toList()));
+		List<T> list = new ArrayList<>(missedIds.size());
+		for (T cached : hits.values()) {
+			list.add(copyEntity(cached));
+		}
+		missedIds.removeAll(hits.keySet());
+		if (!missedIds.isEmpty()) {
+			long generation = cacheGeneration.get();
+			List<T> loaded = doFindByIds(missedIds, null);
+			putCache(cache, loaded, generation);
+			list.addAll(loaded);
+		}
+		return list;
+	}
+
+	private List<T> doFindByIds(Collection<I> ids, Set<String> fields) {
 		if (ids.size() == 1) {
-			T entity = findById(ids.iterator().next());
+			T entity = find(getEntityMeta().getFindByIdSql(fields, getDefaultFieldConverter()), new Object[] { ids.iterator().next() },
+					getEntityMapper());
 			if (entity == null) {
 				return Collections.emptyList();
 			}
 			return Collections.singletonList(entity);
 		}
-		return findForList(getEntityMeta().getFindByIdsSql(ids), ids.toArray(), 0, 0, getEntityMapper());
+		List<List<T>> chunks = executeInChunks(ids, chunk -> {
+			SqlAndParams sqlAndParams = getEntityMeta().getFindByIdsSqlAndParams(chunk, fields,
+					getDefaultFieldConverter(), getInClauseBucketing());
+			return findForList(sqlAndParams.getSql(), sqlAndParams.getParams(), 0, 0, getEntityMapper());
+		});
+		if (chunks.size() == 1) {
+			return chunks.get(0);
+		}
+		List<T> list = new ArrayList<>(ids.size());
+		chunks.forEach(list::addAll);
+		return list;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -290,9 +936,58 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return list2map(list);
 	}
 
+	/**
+	 * Reads only the columns of the fields (and the id), other fields are left
+	 * null. Partial entities bypass the entity cache and the identity scope.
+	 */
+	public T findById(I id, Set<String> fields) throws RepositoryException {
+		Objects.requireNonNull(id);
+		List<T> list = doFindByIds(Collections.singletonList(id), fields);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	/**
+	 * @see #findById(Object, Set)
+	 */
+	public List<T> findByIds(Collection<I> ids, Set<String> fields) throws RepositoryException {
+		return doFindByIds(ids, fields);
+	}
+
+	/**
+	 * @see #findById(Object, Set)
+	 */
+	public List<T> findAll(Set<String> fields) throws RepositoryException {
+		return findForList(getSelectSql(fields), null, 0, 0, getEntityMapper());
+	}
+
+	public T findById(I id, FetchPlan plan) throws RepositoryException {
+		T entity = findById(id);
+		if (entity != null) {
+			hydrate(Collections.singletonList(entity), plan);
+		}
+		return entity;
+	}
+
+	public List<T> findByIds(Collection<I> ids, FetchPlan plan) throws RepositoryException {
+		return hydrate(findByIds(ids), plan);
+	}
+
+	/**
+	 * Loads the relations of the plan with one IN query per relation (and per
+	 * chunk of {@link #getIdsChunkSize()}) over the whole list, replacing the
+	 * relation entities holding only the foreign key. Entities referring to the
+	 * same target get the same instance; relations whose target is not found are
+	 * left as they are. A chunk matching more than {@link #maxNumberOfRows()}
+	 * rows (relation key not unique) fails instead of being truncated.
+	 */
+	public final List<T> hydrate(List<T> entityList, FetchPlan plan) throws RepositoryException {
+		hydrate(getEntityMeta(), entityList, plan);
+		return entityList;
+	}
+
 	@Override
 	public List<T> findAll() {
-		return findForList(getEntityMeta().getFindAllSql(), null, 0, 0, getEntityMapper());
+		return findForList(getSelectSql(null), null, 0, 0, getEntityMapper());
 	}
 
 	protected final int updateDoc(String tableName, Map<String, Object> doc, String key, Object value,
@@ -314,6 +1009,10 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return findForPage(sql, params, page, getEntityMapper());
 	}
 
+	protected final Page<T> findForPage(String sql, Object[] params, PageRequest page, CountStrategy countStrategy) {
+		return findForPage(sql, params, page, getEntityMapper(), countStrategy);
+	}
+
 	protected final Page<T> findForPage(String sql, String countSql, Object[] params, PageRequest page) {
 		return findForPage(sql, countSql, params, page.getOffset(), page.getLimit(), getEntityMapper());
 	}
@@ -327,6 +1026,19 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return findForPullPageByColumn(sql, params, column, page.getLimit(), getEntityMapper());
 	}
 
+	/**
+	 * Keyset pagination of entities, the id column is appended to the sort keys as
+	 * tie-breaker unless already present.
+	 */
+	protected final PullPage<T> findForKeysetPage(String sql, Object[] params, KeysetSort sort,
+			PullPageRequest page) {
+		String idColumn = getEntityMeta().getIdColumnName();
+		if (!sort.contains(idColumn)) {
+			sort = sort.then(idColumn, sort.isAscending(sort.size() - 1));
+		}
+		return findForKeysetPage(sql, params, sort, page, getEntityMapper());
+	}
+
 	protected final List<T> findForList(String sql, Object[] params, int offset, int limit) {
 		return findForList(sql, params, offset, limit, getEntityMapper());
 	}
@@ -339,9 +1051,18 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return findForSet(sql, params, offset, limit, getEntityMapper());
 	}
 
+	protected final Stream<T> stream(String sql, Object[] params) {
+		return stream(sql, params, getEntityMapper());
+	}
+
+	protected final void forEach(String sql, Object[] params, Consumer<? super T> consumer) {
+		forEach(sql, params, getEntityMapper(), consumer);
+	}
+
 	private void doInsert(T entity) {
 		EntityMeta meta = getEntityMeta();
 		DefaultFieldConverter converter = getDefaultFieldConverter();
+		assignIds(Collections.singletonList(entity));
 		String sql = meta.getInsertSql(entity, converter);
 		SaveParams insertParams = meta.getInsertParams(Collections.singletonList(entity), converter);
 		Class<?> generatedIdClass = meta.findGeneratedIdFieldType();
@@ -362,7 +1083,208 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		}
 	}
 
+	private SaveResult doUpsertPostgreSQL(T entity) {
+		EntityMeta meta = getEntityMeta();
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		String sql = meta.getUpsertSql(entity, converter, DatabaseDialect.POSTGRESQL);
+		Object[] params = meta.getUpsertParams(entity, converter);
+		boolean inserted;
+		try {
+			// 返回xmax=0表示插入，do nothing时已存在的行不返回
+			List<Boolean> result = getJdbcTemplate().query(sql, params, (rs, rowNum) -> rs.getBoolean(1));
+			inserted = !result.isEmpty() && result.get(0);
+		} finally {
+			invalidateCache(getEntityIds(Collections.singletonList(entity)));
+		}
+		putIdentityScope(Collections.singletonList(entity));
+		return inserted ? SaveResult.RES_INSERTED : SaveResult.RES_UPDATED;
+	}
+
+	private SaveResult[] doUpsert(List<T> entityList) {
+		SaveResult[] results = new SaveResult[entityList.size()];
+		if (getDatabaseDialect() == DatabaseDialect.POSTGRESQL) {
+			// 需要逐条读取returning结果
+			for (int i = 0; i < results.length; i++) {
+				results[i] = doUpsertPostgreSQL(entityList.get(i));
+			}
+			snapshotUpserted(entityList, results);
+			return results;
+		}
+		EntityMeta meta = getEntityMeta();
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		String sql = meta.getUpsertSql(entityList.get(0), converter, DatabaseDialect.MYSQL);
+		List<Object[]> paramsList = new ArrayList<>(entityList.size());
+		for (T entity : entityList) {
+			paramsList.add(meta.getUpsertParams(entity, converter));
+		}
+		// 行数只有在useAffectedRows且逐条返回时才能区分插入和更新，否则先查出已存在的id
+		Set<Object> existingIds = null;
+		if (!useAffectedRows() || (entityList.size() > 1 && upsertRowCountsUnavailable)) {
+			existingIds = doFindByIds(getEntityIds(entityList), Collections.emptySet()).stream()
+					.map(meta::getEntityId).collect(Collectors.toCollection(HashSet::new));
+		}
+		int[] rows;
+		try {
+			if (entityList.size() == 1) {
+				rows = new int[] { execute(sql, paramsList.get(0)) };
+			} else {
+				rows = executeBatch(sql, paramsList);
+			}
+		} finally {
+			invalidateCache(getEntityIds(entityList));
+		}
+		for (int i = 0; i < rows.length; i++) {
+			boolean inserted;
+			if (existingIds != null) {
+				// 同一批中重复的id，后者为更新
+				inserted = existingIds.add(meta.getEntityId(entityList.get(i)));
+			} else if (rows[i] >= 0) {
+				// 1:插入 2:更新 0:更新但值未变
+				inserted = rows[i] == 1;
+			} else {
+				// SUCCESS_NO_INFO：本批无法区分，按更新返回
+				upsertRowCountsUnavailable = true;
+				inserted = false;
+			}
+			results[i] = inserted ? SaveResult.RES_INSERTED : SaveResult.RES_UPDATED;
+		}
+		putIdentityScope(entityList);
+		snapshotUpserted(entityList, results);
+		return results;
+	}
+
+	private void snapshotUpserted(List<T> entityList, SaveResult[] results) {
+		DirtyTracker tracker = getDirtyTracker();
+		if (tracker == null) {
+			return;
+		}
+		// 更新后可更新列与实体一致；插入的实体与insert()一样不跟踪
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == SaveResult.RES_UPDATED) {
+				tracker.snapshot(entityList.get(i));
+			}
+		}
+	}
+
 	private boolean doUpdate(List<T> entityList, Set<String> fields, boolean upsert) {
+		return doUpdate(entityList, fields, upsert, UpdateBatchMode.JDBC_BATCH);
+	}
+
+	private boolean doUpdate(List<T> entityList, Set<String> fields, boolean upsert, UpdateBatchMode mode) {
+		DirtyTracker tracker = fields == null ? getDirtyTracker() : null;
+		if (tracker != null) {
+			return doUpdateDirty(tracker, entityList, upsert, mode);
+		}
+		boolean updated = false;
+		try {
+			updated = doUpdateWithoutCache(entityList, fields, upsert, mode);
+			return updated;
+		} finally {
+			invalidateCache(getEntityIds(entityList));
+			// 全字段更新成功后实例与数据库一致，放回IdentityScope
+			if (updated && fields == null) {
+				putIdentityScope(entityList);
+			}
+		}
+	}
+
+	private boolean doUpdateDirty(DirtyTracker tracker, List<T> entityList, boolean upsert, UpdateBatchMode mode) {
+		// 按变更字段分组，每组复用同一条更新SQL，未跟踪的实体(null)全字段更新，无变更的实体跳过
+		Map<Set<String>, List<T>> groups = new LinkedHashMap<>();
+		List<T> unchangedList = new ArrayList<>(0);
+		for (T entity : entityList) {
+			Set<String> changedFields = tracker.getChangedFields(entity);
+			if (changedFields == null || !changedFields.isEmpty()) {
+				groups.computeIfAbsent(changedFields, key -> new ArrayList<>()).add(entity);
+			} else {
+				unchangedList.add(entity);
+			}
+		}
+		boolean updated = true;
+		if (upsert && !unchangedList.isEmpty()) {
+			// upsert时无变更的实体也要确认记录仍存在，否则由调用方插入
+			Set<I> ids = new HashSet<>(getEntityIds(unchangedList));
+			if (doFindByIds(ids, Collections.emptySet()).size() < ids.size()) {
+				updated = false;
+			}
+		}
+		for (Entry<Set<String>, List<T>> group : groups.entrySet()) {
+			List<T> groupEntityList = group.getValue();
+			boolean groupUpdated = false;
+			try {
+				groupUpdated = doUpdateWithoutCache(groupEntityList, group.getKey(), upsert, mode);
+			} finally {
+				invalidateCache(getEntityIds(groupEntityList));
+			}
+			if (groupUpdated) {
+				groupEntityList.forEach(tracker::snapshot);
+			} else {
+				updated = false;
+			}
+		}
+		if (updated) {
+			putIdentityScope(entityList);
+		}
+		return updated;
+	}
+
+	private boolean doUpdateWithoutCache(List<T> entityList, Set<String> fields, boolean upsert,
+			UpdateBatchMode mode) {
+		if (mode == UpdateBatchMode.CASE_WHEN && entityList.size() > 1) {
+			Boolean updated = executeCaseWhenUpdate(entityList, fields);
+			if (updated != null) {
+				return updated;
+			}
+		}
+		int[] result = executeUpdate(entityList, fields, upsert, false);
+		return Arrays.stream(result).allMatch(i -> i > 0);
+	}
+
+	/**
+	 * @return null if the entities can not be updated by one statement
+	 */
+	private Boolean executeCaseWhenUpdate(List<T> entityList, Set<String> fields) {
+		EntityMeta meta = getEntityMeta();
+		if (meta.getVersionField() != null) {
+			return null;
+		}
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		List<String> columns = meta.getUpdateColumns(entityList.get(0), fields, converter);
+		if (columns.isEmpty()) {
+			return null;
+		}
+		List<Object[]> paramsBatch = meta.getUpdateParams(entityList, fields, converter).getParams();
+		// id重复时后者覆盖前者，多列字段列数不一致时，均无法合并为一条语句
+		Set<Object> ids = new HashSet<>(paramsBatch.size() * 2);
+		for (Object[] params : paramsBatch) {
+			if (params.length != columns.size() + 1 || !ids.add(params[columns.size()])) {
+				return null;
+			}
+		}
+		int maxRows = MultiRowInsert.MAX_PLACEHOLDERS / (columns.size() * 2 + 1);
+		int chunkSize = Math.max(1, Math.min(getCaseWhenUpdateChunkSize(), maxRows));
+		int updatedRows = 0;
+		for (int i = 0; i < paramsBatch.size(); i += chunkSize) {
+			List<Object[]> chunk = paramsBatch.subList(i, Math.min(i + chunkSize, paramsBatch.size()));
+			SqlAndParams sqlAndParams = meta.getCaseUpdateSqlAndParams(columns, chunk, getInClauseBucketing());
+			updatedRows += execute(sqlAndParams.getSql(), sqlAndParams.getParams());
+		}
+		if (updatedRows == entityList.size()) {
+			return true;
+		}
+		if (!useAffectedRows()) {
+			return false;
+		}
+		// affected rows不计值未变的行，行数不符时再核对记录是否都存在
+		Set<I> idSet = new HashSet<>(getEntityIds(entityList));
+		return doFindByIds(idSet, Collections.emptySet()).size() == idSet.size();
+	}
+
+	/**
+	 * @param partial 部分行更新失败时，是否仍将版本号回写到更新成功的实体
+	 * @return 每个实体对应的影响行数
+	 */
+	private int[] executeUpdate(List<T> entityList, Set<String> fields, boolean upsert, boolean partial) {
 		Object entity = entityList.get(0);
 		EntityMeta meta = getEntityMeta();
 		DefaultFieldConverter converter = getDefaultFieldConverter();
@@ -374,22 +1296,51 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		} else {
 			result = new int[] { execute(sql, params.getParams().get(0)) };
 		}
-		boolean success = Arrays.stream(result).allMatch(i -> i > 0);
 		boolean versioning = params.versioning();
-		// 如果未能保存，如果版本控制，需要抛出相关异常，否则返回false
-		if (!success) {
-			if (versioning && !upsert) {
-				throw versioningError(entityList, result);
-			}
-			return false;
+		if (!versioning) {
+			countUnchangedRows(entityList, result);
+		}
+		boolean success = Arrays.stream(result).allMatch(i -> i > 0);
+		// 如果未能保存，如果版本控制，需要抛出相关异常，否则由调用方处理
+		if (!success && versioning && !upsert) {
+			throw versioningError(entityList, result);
 		}
 		// 保存成功，如果版本控制，版本号需要更新到实体
-		if (versioning) {
+		if (versioning && (success || partial)) {
 			for (int i = 0; i < entityList.size(); i++) {
-				meta.setVersionValue(entityList.get(i), params.getNewVersions().get(i));
+				if (result[i] > 0) {
+					meta.setVersionValue(entityList.get(i), params.getNewVersions().get(i));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * With {@link #useAffectedRows()} an update that changes no value returns 0
+	 * like a missing row, rows of the ids that exist are set to 1.
+	 */
+	private void countUnchangedRows(List<T> entityList, int[] result) {
+		if (!useAffectedRows()) {
+			return;
+		}
+		List<T> zeroRowList = new ArrayList<>(0);
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] == 0) {
+				zeroRowList.add(entityList.get(i));
+			}
+		}
+		if (zeroRowList.isEmpty()) {
+			return;
+		}
+		EntityMeta meta = getEntityMeta();
+		Set<Object> existingIds = doFindByIds(new HashSet<>(getEntityIds(zeroRowList)), Collections.emptySet())
+				.stream().map(meta::getEntityId).collect(Collectors.toSet());
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] == 0 && existingIds.contains(meta.getEntityId(entityList.get(i)))) {
+				result[i] = 1;
 			}
 		}
-		return true;
 	}
 
 	private StaleEntityRepositoryException versioningError(List<T> entityList, int[] result) {
@@ -403,6 +1354,55 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 				"Failed to update entity, maybe entity is stale: " + StringUtil.join(badIds));
 	}
 
+	/**
+	 * Runs the action for each chunk of distinct ids and returns the results in
+	 * chunk order. Sequentially, the first failure stops the remaining chunks. In
+	 * parallel, all chunks run to the end and the first failure is thrown with the
+	 * others suppressed. Chunks already executed are not rolled back unless the
+	 * caller's transaction is.
+	 */
+	private <K, R> List<R> executeInChunks(Collection<K> ids, Function<List<K>, R> action) {
+		int chunkSize = Math.min(getIdsChunkSize(), MultiRowInsert.MAX_PLACEHOLDERS);
+		int maxRows = maxNumberOfRows();
+		if (maxRows > 0) {
+			chunkSize = Math.min(chunkSize, maxRows);
+		}
+		List<K> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+		if (distinctIds.size() <= chunkSize) {
+			return Collections.singletonList(action.apply(distinctIds));
+		}
+		List<List<K>> chunks = new ArrayList<>(distinctIds.size() / chunkSize + 1);
+		for (int i = 0; i < distinctIds.size(); i += chunkSize) {
+			chunks.add(distinctIds.subList(i, Math.min(i + chunkSize, distinctIds.size())));
+		}
+		Executor executor = getParallelExecutor();
+		if (executor == null || TransactionSynchronizationManager.isActualTransactionActive()) {
+			return chunks.stream().map(action).collect(Collectors.toList());
+		}
+		List<CompletableFuture<R>> futures = chunks.stream()
+				.map(chunk -> CompletableFuture.supplyAsync(() -> action.apply(chunk), executor))
+				.collect(Collectors.toList());
+		List<R> results = new ArrayList<>(futures.size());
+		RuntimeException error = null;
+		for (CompletableFuture<R> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (CompletionException ex) {
+				RuntimeException cause = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+						: new RepositoryException(ex);
+				if (error == null) {
+					error = cause;
+				} else {
+					error.addSuppressed(cause);
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return results;
+	}
+
 	private EntityMeta getEntityMeta() {
 		if (entityMeta == null) {
 			entityMeta = EntityManager.getEntityMetaOf(getEntityClass());
@@ -410,16 +1410,257 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return entityMeta;
 	}
 
+	private void hydrate(EntityMeta meta, List<?> entityList, FetchPlan plan) {
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		for (Entry<String, FetchPlan> entry : plan.getFields().entrySet()) {
+			EntityField field = meta.getRelationField(entry.getKey());
+			EntityField keyField = field.ensureRelationField();
+			// 关联键去重，并转换为列值作为查询参数
+			Map<Object, Object> keys = new LinkedHashMap<>();
+			for (Object entity : entityList) {
+				Object key = field.getRelationFieldValue(entity);
+				if (key != null && !keys.containsKey(key)) {
+					keys.put(key, field.getColumnValue(entity, new DBSerializeContext(entity, null, null, converter)));
+				}
+			}
+			if (keys.isEmpty()) {
+				continue;
+			}
+			EntityMeta relationMeta = EntityManager.getEntityMetaOf(field.field.getType());
+			DBMapper<?> mapper = getEntityMapper(field.field.getType());
+			// 关联键不唯一时一块可能超过maxNumberOfRows行，多查一行以发现截断
+			int maxRows = maxNumberOfRows();
+			List<? extends List<?>> chunks = executeInChunks(keys.values(), chunk -> {
+				SqlAndParams sqlAndParams = relationMeta.getFindByFieldValuesSqlAndParams(keyField, chunk,
+						getDefaultFieldConverter(), getInClauseBucketing());
+				List<?> rows = findForList(sqlAndParams.getSql(), sqlAndParams.getParams(), 0,
+						maxRows > 0 ? maxRows + 1 : 0, mapper);
+				if (maxRows > 0 && rows.size() > maxRows) {
+					throw new RepositoryException("More than " + maxRows + " rows of " + field.field.getType()
+							+ " matched by " + keyField.fieldName + ", relation key is not unique");
+				}
+				return rows;
+			});
+			Map<Object, Object> relations = new HashMap<>();
+			List<Object> relationList = new ArrayList<>();
+			for (List<?> chunk : chunks) {
+				for (Object relation : chunk) {
+					if (relations.putIfAbsent(keyField.getFieldValue(relation), relation) == null) {
+						relationList.add(relation);
+					}
+				}
+			}
+			for (Object entity : entityList) {
+				Object relation = relations.get(field.getRelationFieldValue(entity));
+				if (relation != null) {
+					field.setFieldValue(entity, relation);
+				}
+			}
+			if (entry.getValue() != null && !relationList.isEmpty()) {
+				hydrate(relationMeta, relationList, entry.getValue());
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Collection<I> toIds(long[] ids) {
+		Class<?> idType = getEntityMeta().findIdFieldType();
+		if (idType != Long.class && idType != long.class) {
+			throw new RepositoryException("Id of " + getEntityClass() + " is not Long but " + idType);
+		}
+		List<Long> list = new ArrayList<>(ids.length);
+		for (long id : ids) {
+			list.add(id);
+		}
+		return (Collection<I>) list;
+	}
+
+	private T loadById(I id) {
+		long window = getFindByIdCoalescingWindowMicros();
+		// 事务内的查询需使用事务的连接，不合并
+		if (window <= 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+			return doFindById(id);
+		}
+		FindByIdBatcher<I, T> batcher = findByIdBatcher;
+		if (batcher == null) {
+			synchronized (this) {
+				batcher = findByIdBatcher;
+				if (batcher == null) {
+					batcher = new FindByIdBatcher<>(window, getFindByIdCoalescingMaxBatchSize(),
+							ids -> list2map(doFindByIds(ids, null)), this::copyEntity);
+					findByIdBatcher = batcher;
+				}
+			}
+		}
+		return batcher.load(id);
+	}
+
+	/**
+	 * 应用生成ID的策略，在构建插入语句前为未设置ID的实体分配ID
+	 */
+	private void assignIds(List<T> entityList) {
+		EntityMeta meta = getEntityMeta();
+		Id idInfo = meta.getIdInfo();
+		if (idInfo == null || idInfo.strategy() == IdStrategy.PROVIDED || idInfo.strategy() == IdStrategy.INCREMENT) {
+			return;
+		}
+		List<T> missingIds = entityList.stream().filter(entity -> meta.getEntityId(entity) == null)
+				.collect(Collectors.toList());
+		if (missingIds.isEmpty()) {
+			return;
+		}
+		IdGenerator generator = idGenerator;
+		if (generator == null) {
+			synchronized (this) {
+				generator = idGenerator;
+				if (generator == null) {
+					generator = createIdGenerator(idInfo.strategy());
+					idGenerator = generator;
+				}
+			}
+		}
+		long[] ids = generator.nextIds(missingIds.size());
+		DefaultFieldConverter converter = getDefaultFieldConverter();
+		for (int i = 0; i < ids.length; i++) {
+			meta.setEntityId(missingIds.get(i), ids[i], converter);
+		}
+	}
+
+	private boolean forEachChunk(Iterator<T> entities, int batchSize, boolean commitPerChunk,
+			Function<List<T>, Boolean> action) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize");
+		}
+		TransactionTemplate tx = null;
+		if (commitPerChunk) {
+			tx = new TransactionTemplate(getChunkTransactionManager());
+			tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		}
+		boolean success = true;
+		while (entities.hasNext()) {
+			// 每块使用新的列表，已处理的块可被回收
+			List<T> chunk = new ArrayList<>(batchSize);
+			while (chunk.size() < batchSize && entities.hasNext()) {
+				chunk.add(entities.next());
+			}
+			Boolean chunkSuccess = tx == null ? action.apply(chunk) : tx.execute(status -> action.apply(chunk));
+			if (!Boolean.TRUE.equals(chunkSuccess)) {
+				success = false;
+			}
+		}
+		return success;
+	}
+
+	private T copyEntity(T entity) {
+		T copy = EntityManager.copy(entity, getDefaultFieldConverter());
+		DirtyTracker tracker = getDirtyTracker();
+		if (tracker != null) {
+			tracker.snapshot(copy);
+		}
+		return copy;
+	}
+
+	private DirtyTracker getDirtyTracker() {
+		if (!useDirtyTracking()) {
+			return null;
+		}
+		DirtyTracker tracker = dirtyTracker;
+		if (tracker == null) {
+			synchronized (this) {
+				tracker = dirtyTracker;
+				if (tracker == null) {
+					tracker = new DirtyTracker(getEntityMeta(), getDefaultFieldConverter());
+					dirtyTracker = tracker;
+				}
+			}
+		}
+		return tracker;
+	}
+
+	private T doFindById(I id) {
+		return find(getEntityMeta().getFindByIdSql(null, getDefaultFieldConverter()), new Object[] { id }, getEntityMapper());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<I> getEntityIds(List<T> entityList) {
+		EntityMeta meta = getEntityMeta();
+		List<I> ids = new ArrayList<>(entityList.size());
+		for (T entity : entityList) {
+			I id = (I) meta.getEntityId(entity);
+			if (id != null) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	private void putIdentityScope(List<T> entityList) {
+		IdentityScope scope = IdentityScope.current();
+		if (scope == null) {
+			return;
+		}
+		EntityMeta meta = getEntityMeta();
+		for (T entity : entityList) {
+			Object id = meta.getEntityId(entity);
+			if (id != null) {
+				scope.put(getEntityClass(), id, entity);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void putCache(EntityCache<I, T> cache, List<T> entityList, long generation) {
+		// 事务内读到的可能是未提交或快照数据，不回填
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return;
+		}
+		// 读库期间有写入，读到的可能是旧数据，不回填
+		if (cacheGeneration.get() != generation) {
+			return;
+		}
+		EntityMeta meta = getEntityMeta();
+		for (T entity : entityList) {
+			cache.put((I) meta.getEntityId(entity), EntityManager.copy(entity, getDefaultFieldConverter()));
+		}
+		// 回填与写入并发时撤销回填
+		if (cacheGeneration.get() != generation) {
+			cache.invalidateAll(getEntityIds(entityList));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private CacheTransaction getCacheTransaction(boolean create) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		CacheTransaction tx = (CacheTransaction) TransactionSynchronizationManager.getResource(this);
+		if (tx == null && create) {
+			tx = new CacheTransaction();
+			TransactionSynchronizationManager.bindResource(this, tx);
+			TransactionSynchronizationManager.registerSynchronization(tx);
+		}
+		return tx;
+	}
+
 	private boolean doDeleteById(I id) throws RepositoryException {
 		EntityMeta meta = getEntityMeta();
 		String sql = meta.getDeleteByIdSql();
-		return execute(sql, new Object[] { id }) > 0;
+		try {
+			return execute(sql, new Object[] { id }) > 0;
+		} finally {
+			invalidateCache(Collections.singletonList(id));
+		}
 	}
 
 	private boolean doDelete(T entity) throws RepositoryException {
 		EntityMeta meta = getEntityMeta();
 		SqlAndParams sqlAndParams = meta.getDeleteByEntitySqlAndParams(entity);
-		boolean updated = execute(sqlAndParams.getSql(), sqlAndParams.getParams()) > 0;
+		boolean updated;
+		try {
+			updated = execute(sqlAndParams.getSql(), sqlAndParams.getParams()) > 0;
+		} finally {
+			invalidateCache(getEntityIds(Collections.singletonList(entity)));
+		}
 		if (!updated && meta.getVersionField() != null) {
 			throw new StaleEntityRepositoryException("Failed to delete entity for " + entity.getClass() + "/"
 					+ meta.getEntityId(entity) + ", maybe entity is stale");
@@ -427,4 +1668,37 @@ public abstract class DBCRUDRepository<T, I> extends DBRepository implements CRU
 		return updated;
 	}
 
+	/**
+	 * Ids written by the current transaction: they bypass the cache until the
+	 * transaction completes, and are invalidated again after that.
+	 */
+	private class CacheTransaction extends TransactionSynchronizationAdapter {
+		private final Set<I> ids = new HashSet<>();
+		private boolean all;
+
+		void invalidate(Collection<I> ids) {
+			this.ids.addAll(ids);
+		}
+
+		void invalidateAll() {
+			all = true;
+		}
+
+		boolean isInvalidated(I id) {
+			return all || ids.contains(id);
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(DBCRUDRepository.this);
+			EntityCache<I, T> cache = getEntityCache();
+			cacheGeneration.incrementAndGet();
+			if (all) {
+				cache.invalidateAll();
+			} else {
+				cache.invalidateAll(ids);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,27 @@
+package com.sunnysuperman.repository.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.sunnysuperman.repository.db.mapper.DBMapper;
+
+class DBMapperRowMapper<T> implements RowMapper<T> {
+	private static final ColumnMapRowMapper COLUMN_MAP_ROW_MAPPER = new ColumnMapRowMapper();
+	private final DBMapper<T> mapper;
+
+	DBMapperRowMapper(DBMapper<T> mapper) {
+		super();
+		this.mapper = mapper;
+	}
+
+	@Override
+	public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+		Map<String, Object> row = COLUMN_MAP_ROW_MAPPER.mapRow(rs, rowNum);
+		return mapper.map(row);
+	}
+
+}
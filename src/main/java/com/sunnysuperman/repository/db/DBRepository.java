@@ -8,8 +8,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 
 import com.sunnysuperman.commons.page.Page;
 import com.sunnysuperman.commons.page.PageRequest;
@@ -20,6 +27,7 @@ import com.sunnysuperman.repository.InsertUpdate;
 import com.sunnysuperman.repository.RepositoryException;
 import com.sunnysuperman.repository.db.mapper.DBMapper;
 import com.sunnysuperman.repository.db.mapper.ObjectDBMapper;
+import com.sunnysuperman.repository.db.mapper.ResultSetDBMapper;
 
 public abstract class DBRepository {
 
@@ -124,6 +132,17 @@ public abstract class DBRepository {
 		return 10000;
 	}
 
+	/**
+	 * Fetch size of the ResultSet used by {@link #iterate}, {@link #stream} and
+	 * {@link #forEach}. Defaults to Integer.MIN_VALUE (row-by-row streaming) for
+	 * {@link DatabaseDialect#MYSQL} and 1000 otherwise, since other drivers reject
+	 * negative values. Databases that only take a positive value while emulating
+	 * MySQL (e.g. H2) should override it.
+	 */
+	protected int streamFetchSize() {
+		return getDatabaseDialect() == DatabaseDialect.MYSQL ? Integer.MIN_VALUE : 1000;
+	}
+
 	protected String getPagingDialect(String sql, int offset, int limit) {
 		if (limit <= 0) {
 			limit = maxNumberOfRows();
@@ -134,6 +153,98 @@ public abstract class DBRepository {
 		return new StringBuilder(sql).append(" limit ").append(offset).append(",").append(limit).toString();
 	}
 
+	/**
+	 * Wraps the query as a derived table, <code>select * from (sql) k where
+	 * predicate order by ...</code>, so the query may have its own where, joins or
+	 * subqueries. The predicate and the sort refer to the column labels of the
+	 * result. All keys sorted in the same direction compile to a row value
+	 * comparison <code>(a,b)&gt;(?,?)</code>, mixed directions to the expanded
+	 * <code>a&gt;? or (a=? and b&lt;?)</code> form.
+	 */
+	protected SqlAndParams getKeysetDialect(String sql, Object[] params, KeysetSort sort, Object[] keys, int limit) {
+		// 作为派生表包装，不解析原SQL；MySQL和PostgreSQL都会把简单派生表合并到外层查询，条件仍可走索引
+		StringBuilder buf = new StringBuilder("select * from (").append(sql).append(") k");
+		List<Object> allParams = new ArrayList<>();
+		if (params != null) {
+			Collections.addAll(allParams, params);
+		}
+		int size = sort.size();
+		if (keys != null) {
+			buf.append(" where ");
+			if (size == 1 || sort.isUniform()) {
+				String op = sort.isAscending(0) ? ">" : "<";
+				if (size == 1) {
+					buf.append(sort.getColumnLabel(0)).append(op).append('?');
+				} else {
+					buf.append('(');
+					for (int i = 0; i < size; i++) {
+						buf.append(i > 0 ? "," : "").append(sort.getColumnLabel(i));
+					}
+					buf.append(')').append(op).append('(');
+					for (int i = 0; i < size; i++) {
+						buf.append(i > 0 ? ",?" : "?");
+					}
+					buf.append(')');
+				}
+				Collections.addAll(allParams, keys);
+			} else {
+				for (int i = 0; i < size; i++) {
+					buf.append(i > 0 ? " or (" : "(");
+					for (int j = 0; j < i; j++) {
+						buf.append(sort.getColumnLabel(j)).append("=? and ");
+						allParams.add(keys[j]);
+					}
+					buf.append(sort.getColumnLabel(i)).append(sort.isAscending(i) ? ">?" : "<?").append(')');
+					allParams.add(keys[i]);
+				}
+			}
+		}
+		buf.append(" order by ");
+		for (int i = 0; i < size; i++) {
+			buf.append(i > 0 ? "," : "").append(sort.getColumnLabel(i)).append(sort.isAscending(i) ? " asc" : " desc");
+		}
+		return new SqlAndParams(getPagingDialect(buf.toString(), 0, limit), allParams.toArray());
+	}
+
+	/**
+	 * Dialect of statements that are not portable, e.g. the native upsert of
+	 * {@link DBCRUDRepository#save}.
+	 */
+	protected DatabaseDialect getDatabaseDialect() {
+		return DatabaseDialect.MYSQL;
+	}
+
+	/**
+	 * Whether insertDocs/insertBatch send multi-row "insert ... values (...),(...)"
+	 * statements instead of a JDBC batch of single-row inserts, which costs one
+	 * round trip per row unless the driver rewrites batches (rewriteBatchedStatements).
+	 */
+	protected boolean useMultiRowInsert() {
+		return false;
+	}
+
+	/**
+	 * Max rows of one multi-row insert, further bounded by 65535 placeholders.
+	 */
+	protected int multiRowInsertMaxRows() {
+		return 1000;
+	}
+
+	/**
+	 * Estimated size limit of one multi-row insert, keep it under the server's
+	 * max_allowed_packet.
+	 */
+	protected long multiRowInsertMaxPacketBytes() {
+		return 4L * 1024 * 1024;
+	}
+
+	/**
+	 * Count strategy of findForPage when none is given per call.
+	 */
+	protected CountStrategy getCountStrategy() {
+		return ExactCountStrategy.getInstance();
+	}
+
 	protected String getCountDialect(String sql) {
 		int index1 = sql.indexOf(" from ");
 		if (index1 <= 0) {
@@ -214,6 +325,9 @@ public abstract class DBRepository {
 			}
 			paramsBatch.add(params);
 		}
+		if (useMultiRowInsert()) {
+			return executeMultiRowInsert(sql, paramsBatch, generatedKeyClass);
+		}
 		// 无需生成自增ID
 		if (generatedKeyClass == null) {
 			getJdbcTemplate().batchUpdate(sql, paramsBatch);
@@ -228,6 +342,39 @@ public abstract class DBRepository {
 		return generatedKeys;
 	}
 
+	/**
+	 * Executes the rows of a single-row insert as multi-row inserts, returns the
+	 * generated keys in the order of the rows (empty if generatedKeyClass is
+	 * null).
+	 */
+	protected <T> List<T> executeMultiRowInsert(String sql, List<Object[]> paramsBatch, Class<T> generatedKeyClass) {
+		if (paramsBatch.isEmpty()) {
+			return Collections.emptyList();
+		}
+		MultiRowInsert insert = new MultiRowInsert(sql, paramsBatch.get(0).length);
+		List<T> generatedKeys = generatedKeyClass == null ? Collections.emptyList()
+				: new ArrayList<>(paramsBatch.size());
+		int from = 0;
+		for (int rows : insert.split(paramsBatch, multiRowInsertMaxRows(), multiRowInsertMaxPacketBytes())) {
+			String chunkSql = insert.getSql(rows);
+			Object[] params = MultiRowInsert.flatten(paramsBatch, from, from + rows);
+			if (generatedKeyClass == null) {
+				execute(chunkSql, params);
+			} else {
+				List<T> keys = getJdbcTemplate().execute(new GeneratKeysPreparedStatementCreator(chunkSql),
+						new InsertBatchPreparedStatementCallback<>(Collections.singletonList(params),
+								generatedKeyClass));
+				if (keys == null || keys.size() != rows) {
+					throw new RepositoryException("Insert error: " + (keys == null ? 0 : keys.size())
+							+ " ids generated for " + rows + " rows");
+				}
+				generatedKeys.addAll(keys);
+			}
+			from += rows;
+		}
+		return generatedKeys;
+	}
+
 	public int updateDoc(String tableName, Map<String, Object> doc, String[] keys, Object[] values) {
 		SqlAndParams sp = getUpdateDialect(tableName, doc, keys, values);
 		return execute(sp.getSql(), sp.getParams());
@@ -257,87 +404,89 @@ public abstract class DBRepository {
 	}
 
 	public <T> T find(String sql, Object[] params, DBMapper<T> mapper) {
-		List<Map<String, Object>> rawItems = getJdbcTemplate().queryForList(getPagingDialect(sql, 0, 1), params);
-		if (rawItems.isEmpty()) {
+		List<T> items = getJdbcTemplate().query(getPagingDialect(sql, 0, 1), params, toRowMapper(mapper));
+		if (items.isEmpty()) {
 			return null;
 		}
-		Map<String, Object> rawItem = rawItems.get(0);
-		return mapper.map(rawItem);
+		return items.get(0);
 	}
 
 	public <T> List<T> findForList(String sql, Object[] params, int offset, int limit, DBMapper<T> mapper) {
-		List<Map<String, Object>> rawItems = getJdbcTemplate().queryForList(getPagingDialect(sql, offset, limit),
-				params);
-		if (rawItems.isEmpty()) {
+		List<T> items = getJdbcTemplate().query(getPagingDialect(sql, offset, limit), params, toRowMapper(mapper));
+		if (items.isEmpty()) {
 			return Collections.emptyList();
 		}
-		List<T> items = new ArrayList<>(rawItems.size());
-		for (Map<String, Object> rawItem : rawItems) {
-			T item = mapper.map(rawItem);
-			items.add(item);
-		}
 		return items;
 	}
 
 	public <T> Set<T> findForSet(String sql, Object[] params, int offset, int limit, DBMapper<T> mapper) {
-		List<Map<String, Object>> rawItems = getJdbcTemplate().queryForList(getPagingDialect(sql, offset, limit),
-				params);
-		if (rawItems.isEmpty()) {
+		List<T> items = getJdbcTemplate().query(getPagingDialect(sql, offset, limit), params, toRowMapper(mapper));
+		if (items.isEmpty()) {
 			return Collections.emptySet();
 		}
-		Set<T> items = new HashSet<>(rawItems.size());
-		for (Map<String, Object> rawItem : rawItems) {
-			T item = mapper.map(rawItem);
-			items.add(item);
+		return new HashSet<>(items);
+	}
+
+	/**
+	 * Iterates all rows of the query without loading them into memory, no row
+	 * limit is applied. The iterator holds a connection until it is exhausted or
+	 * closed. With MySQL streaming, no other statement may be issued on the same
+	 * connection (e.g. inside the same transaction) before the iterator is closed.
+	 */
+	public <T> CloseableIterator<T> iterate(String sql, Object[] params, DBMapper<T> mapper) {
+		return new ResultSetIterator<>(getJdbcTemplate(), sql, params, streamFetchSize(), toRowMapper(mapper));
+	}
+
+	/**
+	 * Same as {@link #iterate}, the stream must be closed to release the
+	 * connection.
+	 */
+	public <T> Stream<T> stream(String sql, Object[] params, DBMapper<T> mapper) {
+		CloseableIterator<T> iterator = iterate(sql, params, mapper);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(iterator::close);
+	}
+
+	public <T> void forEach(String sql, Object[] params, DBMapper<T> mapper, Consumer<? super T> consumer) {
+		try (CloseableIterator<T> iterator = iterate(sql, params, mapper)) {
+			while (iterator.hasNext()) {
+				consumer.accept(iterator.next());
+			}
 		}
-		return items;
 	}
 
 	public <T> Page<T> findForPage(String sql, Object[] params, int offset, int limit, DBMapper<T> mapper) {
-		List<T> items = findForList(sql, params, offset, limit, mapper);
-		int size = items.size();
-		if (size == 0) {
-			return Page.empty(limit);
-		}
-		if (offset != 0 || size == limit) {
-			size = count(getCountDialect(sql), params);
-		}
-		return new Page<>(items, size, offset, limit);
+		return findForPage(sql, null, params, offset, limit, mapper, getCountStrategy());
 	}
 
 	public <T> Page<T> findForPage(String sql, Object[] params, PageRequest page, DBMapper<T> mapper) {
 		return findForPage(sql, params, page.getOffset(), page.getLimit(), mapper);
 	}
 
+	public <T> Page<T> findForPage(String sql, Object[] params, PageRequest page, DBMapper<T> mapper,
+			CountStrategy countStrategy) {
+		return findForPage(sql, null, params, page.getOffset(), page.getLimit(), mapper, countStrategy);
+	}
+
 	public <T> Page<T> findForPage(String sql, String countSql, Object[] params, int offset, int limit,
 			DBMapper<T> mapper) {
-		List<T> items = findForList(sql, params, offset, limit, mapper);
-		int size = items.size();
-		if (size == 0) {
-			return Page.empty(limit);
-		}
-		if (offset != 0 || size == limit) {
-			size = count(countSql != null ? countSql : getCountDialect(sql), params);
-		}
-		return new Page<>(items, size, offset, limit);
+		return findForPage(sql, countSql, params, offset, limit, mapper, getCountStrategy());
+	}
+
+	public <T> Page<T> findForPage(String sql, String countSql, Object[] params, int offset, int limit,
+			DBMapper<T> mapper, CountStrategy countStrategy) {
+		return countStrategy.findForPage(new PageQuery<>(this, sql, countSql, params, offset, limit, mapper));
 	}
 
 	public <T> PullPage<T> findForPullPage(String sql, Object[] params, String marker, int limit, DBMapper<T> mapper) {
 		int offset = marker == null ? 0 : Integer.parseInt(marker);
-		List<Map<String, Object>> rawItems = getJdbcTemplate().queryForList(getPagingDialect(sql, offset, limit + 1),
-				params);
+		PullPageRowMapper<T> rowMapper = new PullPageRowMapper<>(toRowMapper(mapper), limit);
+		List<T> rawItems = getJdbcTemplate().query(getPagingDialect(sql, offset, limit + 1), params, rowMapper);
 		if (rawItems.isEmpty()) {
 			return PullPage.empty();
 		}
-		boolean hasMore = rawItems.size() > limit;
-		List<T> items = new ArrayList<>(Math.min(limit, rawItems.size()));
-		for (Map<String, Object> rawItem : rawItems) {
-			T item = mapper.map(rawItem);
-			items.add(item);
-			if (items.size() >= limit) {
-				break;
-			}
-		}
+		boolean hasMore = rowMapper.hasMore();
+		List<T> items = hasMore ? new ArrayList<>(rawItems.subList(0, limit)) : rawItems;
 		int newOffset = offset + limit;
 		return PullPage.of(items, String.valueOf(newOffset), hasMore);
 	}
@@ -348,23 +497,16 @@ public abstract class DBRepository {
 
 	public <T> PullPage<T> findForPullPageByColumn(String sql, Object[] params, String column, int limit,
 			DBMapper<T> mapper) {
-		List<Map<String, Object>> rawItems = getJdbcTemplate().queryForList(getPagingDialect(sql, 0, limit + 1),
-				params);
+		PullPageRowMapper<T> rowMapper = new PullPageRowMapper<>(toRowMapper(mapper), limit, column);
+		List<T> rawItems = getJdbcTemplate().query(getPagingDialect(sql, 0, limit + 1), params, rowMapper);
 		if (rawItems.isEmpty()) {
 			return PullPage.empty();
 		}
-		List<T> items = new ArrayList<>(Math.min(limit, rawItems.size()));
-		boolean hasMore = rawItems.size() > limit;
+		boolean hasMore = rowMapper.hasMore();
+		List<T> items = hasMore ? new ArrayList<>(rawItems.subList(0, limit)) : rawItems;
 		String newMarker = null;
 		if (hasMore) {
-			newMarker = rawItems.get(limit - 1).get(column).toString();
-		}
-		for (Map<String, Object> rawItem : rawItems) {
-			T item = mapper.map(rawItem);
-			items.add(item);
-			if (items.size() >= limit) {
-				break;
-			}
+			newMarker = rowMapper.getMarkers()[0].toString();
 		}
 		return PullPage.of(items, newMarker, hasMore);
 	}
@@ -374,6 +516,100 @@ public abstract class DBRepository {
 		return findForPullPageByColumn(sql, params, column, page.getLimit(), mapper);
 	}
 
+	/**
+	 * Keyset (seek) pagination: instead of skipping rows by offset, the next page
+	 * starts right after the sort key values of the last row of the previous page,
+	 * which are carried by the opaque marker. The sort keys must be unique
+	 * together and not null.
+	 *
+	 * @param sql
+	 *            any query without order by or limit, its column labels must be
+	 *            unique and include the sort keys
+	 */
+	public <T> PullPage<T> findForKeysetPage(String sql, Object[] params, KeysetSort sort, String marker, int limit,
+			DBMapper<T> mapper) {
+		Object[] keys = marker == null ? null : KeysetCursor.decode(marker, sort.size());
+		SqlAndParams sp = getKeysetDialect(sql, params, sort, keys, limit + 1);
+		String[] keyLabels = new String[sort.size()];
+		for (int i = 0; i < keyLabels.length; i++) {
+			keyLabels[i] = sort.getColumnLabel(i);
+		}
+		PullPageRowMapper<T> rowMapper = new PullPageRowMapper<>(toRowMapper(mapper), limit, keyLabels);
+		List<T> rawItems = getJdbcTemplate().query(sp.getSql(), sp.getParams(), rowMapper);
+		if (rawItems.isEmpty()) {
+			return PullPage.empty();
+		}
+		boolean hasMore = rowMapper.hasMore();
+		List<T> items = hasMore ? new ArrayList<>(rawItems.subList(0, limit)) : rawItems;
+		String newMarker = null;
+		if (hasMore) {
+			Object[] newKeys = rowMapper.getMarkers();
+			for (int i = 0; i < newKeys.length; i++) {
+				if (newKeys[i] == null) {
+					throw new RepositoryException("Keyset sort column '" + sort.getColumn(i) + "' should not be null");
+				}
+			}
+			newMarker = KeysetCursor.encode(newKeys);
+		}
+		return PullPage.of(items, newMarker, hasMore);
+	}
+
+	public <T> PullPage<T> findForKeysetPage(String sql, Object[] params, KeysetSort sort, PullPageRequest page,
+			DBMapper<T> mapper) {
+		return findForKeysetPage(sql, params, sort, page.getMarker(), page.getLimit(), mapper);
+	}
+
+	/**
+	 * Values of the first column as primitives, rows with null are skipped. A
+	 * limit &lt;= 0 reads all rows (from offset) without the
+	 * {@link #maxNumberOfRows()} cap, since primitive id scans are meant for large
+	 * results.
+	 */
+	public long[] findLongs(String sql, Object[] params, int offset, int limit) {
+		PrimitiveArrayBuilder.Longs items = new PrimitiveArrayBuilder.Longs();
+		getJdbcTemplate().query(getPrimitiveScanDialect(sql, offset, limit), params, (RowCallbackHandler) rs -> {
+			long value = rs.getLong(1);
+			if (!rs.wasNull()) {
+				items.add(value);
+			}
+		});
+		return items.toArray();
+	}
+
+	/**
+	 * @see #findLongs(String, Object[], int, int)
+	 */
+	public int[] findInts(String sql, Object[] params, int offset, int limit) {
+		PrimitiveArrayBuilder.Ints items = new PrimitiveArrayBuilder.Ints();
+		getJdbcTemplate().query(getPrimitiveScanDialect(sql, offset, limit), params, (RowCallbackHandler) rs -> {
+			int value = rs.getInt(1);
+			if (!rs.wasNull()) {
+				items.add(value);
+			}
+		});
+		return items.toArray();
+	}
+
+	/**
+	 * First column as keys and second column as values, rows with null are
+	 * skipped and later rows win on duplicate keys. Same limit as
+	 * {@link #findLongs(String, Object[], int, int)}.
+	 */
+	public LongLongHashMap findLongToLongMap(String sql, Object[] params, int offset, int limit) {
+		LongLongHashMap map = new LongLongHashMap();
+		getJdbcTemplate().query(getPrimitiveScanDialect(sql, offset, limit), params, (RowCallbackHandler) rs -> {
+			long key = rs.getLong(1);
+			if (rs.wasNull()) {
+				return;
+			}
+			long value = rs.getLong(2);
+			if (!rs.wasNull()) {
+				map.put(key, value);
+			}
+		});
+		return map;
+	}
+
 	public int count(String sql, Object[] params) {
 		Integer val = getJdbcTemplate().queryForObject(sql, params, Integer.class);
 		return FormatUtil.parseIntValue(val, 0);
@@ -383,6 +619,25 @@ public abstract class DBRepository {
 		return find(sql, params, ObjectDBMapper.getInstance()) != null;
 	}
 
+	/**
+	 * Entity mappers read rows straight from the ResultSet, other mappers still
+	 * receive a column map per row.
+	 */
+	protected <T> RowMapper<T> toRowMapper(DBMapper<T> mapper) {
+		if (mapper instanceof ResultSetDBMapper) {
+			return ((ResultSetDBMapper<T>) mapper).createRowMapper();
+		}
+		return new DBMapperRowMapper<>(mapper);
+	}
+
+	private String getPrimitiveScanDialect(String sql, int offset, int limit) {
+		if (limit > 0) {
+			return getPagingDialect(sql, offset, limit);
+		}
+		// 不受maxNumberOfRows限制
+		return offset > 0 ? getPagingDialect(sql, offset, Integer.MAX_VALUE) : sql;
+	}
+
 	private String makeInsertSql(String tableName, Map<String, Object> testDoc, String[] columns) {
 		int i = 0;
 		StringBuilder buf = new StringBuilder("insert into ");
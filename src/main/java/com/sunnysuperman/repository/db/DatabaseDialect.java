@@ -0,0 +1,20 @@
+package com.sunnysuperman.repository.db;
+
+/**
+ * SQL dialect of statements whose syntax differs between databases, see
+ * {@link DBRepository#getDatabaseDialect()}. H2 in MySQL mode uses
+ * {@link #MYSQL}.
+ */
+public enum DatabaseDialect {
+
+	/**
+	 * MySQL/MariaDB: <code>insert ... on duplicate key update</code>
+	 */
+	MYSQL,
+
+	/**
+	 * PostgreSQL: <code>insert ... on conflict(id) do update ... returning</code>
+	 */
+	POSTGRESQL
+
+}
@@ -0,0 +1,90 @@
+package com.sunnysuperman.repository.db;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshots of the updatable column values of loaded entities, keyed by entity
+ * identity and weakly referenced so that tracked entities can still be
+ * collected.
+ */
+class DirtyTracker {
+	private final EntityMeta meta;
+	private final DefaultFieldConverter defaultFieldConverter;
+	private final Map<IdentityKey, Object[]> snapshots = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	DirtyTracker(EntityMeta meta, DefaultFieldConverter defaultFieldConverter) {
+		super();
+		this.meta = meta;
+		this.defaultFieldConverter = defaultFieldConverter;
+	}
+
+	void snapshot(Object entity) {
+		if (entity == null) {
+			return;
+		}
+		expunge();
+		Object[] values = meta.getUpdatableColumnValues(entity, defaultFieldConverter);
+		// 复制Date、数组等可变值，否则原地修改会同时改变快照而检测不到
+		for (int i = 0; i < values.length; i++) {
+			values[i] = ColumnValues.copy(values[i]);
+		}
+		snapshots.put(new IdentityKey(entity, queue), values);
+	}
+
+	/**
+	 * @return changed field names, or null if the entity is not tracked
+	 */
+	Set<String> getChangedFields(Object entity) {
+		Object[] snapshot = snapshots.get(new IdentityKey(entity, null));
+		if (snapshot == null) {
+			return null;
+		}
+		return meta.getChangedFields(entity, snapshot, defaultFieldConverter);
+	}
+
+	int size() {
+		expunge();
+		return snapshots.size();
+	}
+
+	private void expunge() {
+		Reference<?> ref;
+		while ((ref = queue.poll()) != null) {
+			snapshots.remove(ref);
+		}
+	}
+
+	private static class IdentityKey extends WeakReference<Object> {
+		private final int hash;
+
+		IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.hash = System.identityHashCode(referent);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+
+	}
+
+}
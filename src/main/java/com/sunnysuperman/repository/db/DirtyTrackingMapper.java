@@ -0,0 +1,40 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.sunnysuperman.repository.db.mapper.ResultSetDBMapper;
+
+/**
+ * Takes a {@link DirtyTracker} snapshot of every entity right after it is
+ * deserialized.
+ */
+class DirtyTrackingMapper<T> implements ResultSetDBMapper<T> {
+	private final ResultSetDBMapper<T> mapper;
+	private final DirtyTracker tracker;
+
+	DirtyTrackingMapper(ResultSetDBMapper<T> mapper, DirtyTracker tracker) {
+		super();
+		this.mapper = mapper;
+		this.tracker = tracker;
+	}
+
+	@Override
+	public T map(Map<String, Object> row) {
+		T entity = mapper.map(row);
+		tracker.snapshot(entity);
+		return entity;
+	}
+
+	@Override
+	public RowMapper<T> createRowMapper() {
+		RowMapper<T> rowMapper = mapper.createRowMapper();
+		return (rs, rowNum) -> {
+			T entity = rowMapper.mapRow(rs, rowNum);
+			tracker.snapshot(entity);
+			return entity;
+		};
+	}
+
+}
@@ -1,9 +1,10 @@
 package com.sunnysuperman.repository.db;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import com.sunnysuperman.commons.util.FormatUtil;
 import com.sunnysuperman.commons.util.StringUtil;
@@ -26,6 +27,8 @@ class EntityField {
 	protected Field field;
 	protected Method readMethod;
 	protected Method writeMethod;
+	protected Function<Object, Object> getter;
+	protected BiConsumer<Object, Object> setter;
 	protected Column column;
 	protected boolean relation;
 	protected String relationFieldName;
@@ -48,6 +51,8 @@ class EntityField {
 		f.field = field;
 		f.readMethod = readMethod;
 		f.writeMethod = BeanUtils.getWriteMethodByField(field);
+		f.getter = FieldAccessors.getter(readMethod);
+		f.setter = FieldAccessors.setter(f.writeMethod);
 		f.fieldName = field.getName();
 		f.columnName = columnName;
 		f.column = column;
@@ -169,8 +174,10 @@ class EntityField {
 
 	public Object getFieldValue(Object entity) {
 		try {
-			return readMethod.invoke(entity);
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			return getter.apply(entity);
+		} catch (RepositoryException e) {
+			throw e;
+		} catch (RuntimeException e) {
 			throw new RepositoryException(e);
 		}
 	}
@@ -179,13 +186,16 @@ class EntityField {
 		if (!relation) {
 			return getFieldValue(entity);
 		}
-		return ensureRelationField().getRelationFieldValue(getFieldValue(entity));
+		Object relationEntity = getFieldValue(entity);
+		return relationEntity == null ? null : ensureRelationField().getRelationFieldValue(relationEntity);
 	}
 
 	public void setFieldValue(Object entity, Object value) {
 		try {
-			writeMethod.invoke(entity, value);
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			setter.accept(entity, value);
+		} catch (RepositoryException e) {
+			throw e;
+		} catch (RuntimeException e) {
 			throw new RepositoryException(e);
 		}
 	}
@@ -198,7 +208,7 @@ class EntityField {
 		if (converter != null) {
 			@SuppressWarnings("unchecked")
 			Object convertedValue = converter.convertToField(value, field.getType(), context);
-			writeMethod.invoke(entity, convertedValue);
+			setter.accept(entity, convertedValue);
 			return convertedValue;
 		}
 		// 2.null
@@ -213,7 +223,7 @@ class EntityField {
 				value = defaultFieldConverter.convertToField(value, type, field.getGenericType());
 			}
 			try {
-				writeMethod.invoke(entity, value);
+				setter.accept(entity, value);
 			} catch (Exception ex) {
 				throw new RepositoryException("Failed to set value of " + field.getName() + " by value: ["
 						+ value.getClass() + "] " + value.toString(), ex);
@@ -222,12 +232,12 @@ class EntityField {
 		}
 		// 3.2关联对象
 		Object relationEntity = type.newInstance();
-		writeMethod.invoke(entity, relationEntity);
+		setter.accept(entity, relationEntity);
 		ensureRelationField().setFieldValue(relationEntity, value, context, defaultFieldConverter);
 		return relationEntity;
 	}
 
-	private EntityField ensureRelationField() {
+	EntityField ensureRelationField() {
 		if (relationField != null) {
 			return relationField;
 		}
@@ -1,5 +1,7 @@
 package com.sunnysuperman.repository.db;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -8,9 +10,14 @@ import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.LinkedCaseInsensitiveMap;
 
 import com.sunnysuperman.commons.util.TypeFinder;
+import com.sunnysuperman.repository.InsertUpdate;
+import com.sunnysuperman.repository.MultiColumn;
 import com.sunnysuperman.repository.RepositoryException;
+import com.sunnysuperman.repository.SerializeContext;
 import com.sunnysuperman.repository.annotation.Entity;
 
 public class EntityManager {
@@ -59,6 +66,63 @@ public class EntityManager {
 		}
 	}
 
+	public static <T> RowMapper<T> createRowMapper(Class<T> type, DefaultFieldConverter defaultFieldConverter) {
+		return new EntityRowMapper<>(type, defaultFieldConverter);
+	}
+
+	static <T> T deserialize(Object[] row, EntityRowBinding binding, Class<T> type,
+			DefaultFieldConverter defaultFieldConverter) throws RepositoryException {
+		DBDeserializeContext context = new ResultSetDeserializeContext(row, binding, defaultFieldConverter);
+		EntityField[] fields = binding.getFields();
+		try {
+			T entity = type.newInstance();
+			for (int i = 0; i < fields.length; i++) {
+				int index = binding.getFieldIndex(i);
+				fields[i].setFieldValue(entity, index < 0 ? null : row[index], context, defaultFieldConverter);
+			}
+			return entity;
+		} catch (RepositoryException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RepositoryException(ex);
+		}
+	}
+
+	/**
+	 * Copy through a round trip of the column values, as if the entity were
+	 * written and read back: values created by converters are created again,
+	 * mutable column values (Date, arrays) are copied, and relations become new
+	 * objects holding only their key. Fields serialized as a {@link DBFunction}
+	 * cannot be read back and are copied by reference.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T copy(T src, DefaultFieldConverter defaultFieldConverter) throws RepositoryException {
+		EntityMeta meta = getEntityMetaOf(src.getClass());
+		SerializeContext context = new DBSerializeContext(src, null, InsertUpdate.INSERT, defaultFieldConverter);
+		Map<String, Object> row = new LinkedCaseInsensitiveMap<>();
+		List<EntityField> functionFields = new ArrayList<>(0);
+		List<EntityField> fields = new ArrayList<>(meta.getNormalFields().size() + 1);
+		if (meta.getIdField() != null) {
+			fields.add(meta.getIdField());
+		}
+		fields.addAll(meta.getNormalFields());
+		for (EntityField field : fields) {
+			Object columnValue = field.getColumnValue(src, context);
+			if (columnValue instanceof DBFunction) {
+				functionFields.add(field);
+			} else if (columnValue instanceof MultiColumn) {
+				((MultiColumn) columnValue).getColumns().forEach((k, v) -> row.put(k, ColumnValues.copy(v)));
+			} else {
+				row.put(field.columnName, ColumnValues.copy(columnValue));
+			}
+		}
+		T dest = deserialize(row, (Class<T>) src.getClass(), defaultFieldConverter);
+		for (EntityField field : functionFields) {
+			field.setFieldValue(dest, field.getFieldValue(src));
+		}
+		return dest;
+	}
+
 	protected static <T> void copyNotUpdatableFields(T src, T dest) {
 		Objects.requireNonNull(src, "src");
 		Objects.requireNonNull(dest, "dest");
@@ -1,18 +1,26 @@
 package com.sunnysuperman.repository.db;
 
 import java.lang.reflect.Field;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.springframework.jdbc.support.JdbcUtils;
+
 import com.sunnysuperman.commons.util.StringUtil;
 import com.sunnysuperman.repository.InsertUpdate;
 import com.sunnysuperman.repository.MultiColumn;
@@ -36,9 +44,16 @@ class EntityMeta {
 	private String deleteByIdSql;
 	private String deleteSql;
 	private String existsByIdSql;
-	private String findByIdSql;
-	private String findAllSql;
+	private Map<String, String> selectSqls = new ConcurrentHashMap<>();
+	private Map<String, String> findByIdSqls = new ConcurrentHashMap<>();
 	private Map<String, String> updateSqls = new ConcurrentHashMap<>();
+	private Map<String, String> caseUpdateSqls = new ConcurrentHashMap<>();
+	private Map<DatabaseDialect, String> upsertSqls = new ConcurrentHashMap<>();
+	private Map<String, EntityRowBinding> rowBindings = new ConcurrentHashMap<>();
+	private Map<String, String> findByIdsSqls = new ConcurrentHashMap<>();
+	private Map<Integer, String> deleteByIdsSqls = new ConcurrentHashMap<>();
+	private Map<Integer, String> deleteByIdVersionsSqls = new ConcurrentHashMap<>();
+	private Map<String, String> findByColumnValuesSqls = new ConcurrentHashMap<>();
 
 	public EntityField getVersionField() {
 		return versionField;
@@ -145,10 +160,108 @@ class EntityMeta {
 		return columns;
 	}
 
+	public EntityRowBinding getRowBinding(ResultSetMetaData metaData) throws SQLException {
+		int columnCount = metaData.getColumnCount();
+		String[] columnLabels = new String[columnCount];
+		StringBuilder shape = new StringBuilder();
+		for (int i = 0; i < columnCount; i++) {
+			columnLabels[i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+			if (i > 0) {
+				shape.append(',');
+			}
+			shape.append(columnLabels[i]);
+		}
+		String key = shape.toString();
+		EntityRowBinding binding = rowBindings.get(key);
+		if (binding == null) {
+			// 同名列以后出现的为准，与按列名读取时一致
+			Map<String, Integer> columnIndexes = new HashMap<>(columnCount * 2);
+			for (int i = 0; i < columnCount; i++) {
+				columnIndexes.put(EntityRowBinding.normalize(columnLabels[i]), i);
+			}
+			List<EntityField> fields = new ArrayList<>(normalFields.size() + 1);
+			fields.addAll(normalFields);
+			if (idField != null) {
+				fields.add(idField);
+			}
+			binding = new EntityRowBinding(columnLabels, columnIndexes, fields);
+			rowBindings.put(key, binding);
+		}
+		return binding;
+	}
+
 	public String getInsertSql(Object entity, DefaultFieldConverter defaultFieldConverter) {
 		if (insertSql != null) {
 			return insertSql;
 		}
+		List<String> insertColumns = getInsertColumns(entity, defaultFieldConverter);
+		// 组装SQL
+		insertSql = new StringBuilder("insert into ").append(tableName).append('(')
+				.append(StringUtil.join(insertColumns)).append(") values(")
+				.append(StringUtil.join(insertColumns.stream().map(i -> "?").collect(Collectors.toList()))).append(')')
+				.toString();
+		return insertSql;
+	}
+
+	/**
+	 * Insert that updates the updatable columns when the id exists, with the
+	 * parameters of {@link #getUpsertParams}. Not for versioned entities, whose
+	 * update must compare the version.
+	 */
+	public String getUpsertSql(Object entity, DefaultFieldConverter defaultFieldConverter, DatabaseDialect dialect) {
+		String sql = upsertSqls.get(dialect);
+		if (sql != null) {
+			return sql;
+		}
+		if (versionField != null) {
+			throw new RepositoryException("Upsert is not supported by versioned entity " + tableName);
+		}
+		SerializeContext context = new DBSerializeContext(entity, null, InsertUpdate.UPDATE, defaultFieldConverter);
+		// 可插入的列取插入的值，不可插入的列另外传参
+		List<String> insertedColumns = new ArrayList<>(normalFields.size());
+		List<String> notInsertedColumns = new ArrayList<>(normalFields.size());
+		iterateUpsertFields(true, new ColumnNameRetriever(insertedColumns, context));
+		iterateUpsertFields(false, new ColumnNameRetriever(notInsertedColumns, context));
+		boolean postgres = dialect == DatabaseDialect.POSTGRESQL;
+		List<String> updateColumns = new ArrayList<>(insertedColumns.size() + notInsertedColumns.size());
+		insertedColumns.forEach(i -> updateColumns.add(i + (postgres ? "=excluded." + i : "=values(" + i + ")")));
+		notInsertedColumns.forEach(i -> updateColumns.add(i + "=?"));
+		StringBuilder b = new StringBuilder(getInsertSql(entity, defaultFieldConverter));
+		if (dialect == DatabaseDialect.POSTGRESQL) {
+			b.append(" on conflict(").append(idField.columnName).append(')');
+			if (updateColumns.isEmpty()) {
+				// do nothing时已存在的行不返回
+				b.append(" do nothing");
+			} else {
+				b.append(" do update set ").append(StringUtil.join(updateColumns));
+			}
+			b.append(" returning (xmax=0)");
+		} else {
+			b.append(" on duplicate key update ");
+			if (updateColumns.isEmpty()) {
+				b.append(idField.columnName).append('=').append(idField.columnName);
+			} else {
+				b.append(StringUtil.join(updateColumns));
+			}
+		}
+		sql = b.toString();
+		upsertSqls.put(dialect, sql);
+		return sql;
+	}
+
+	public Object[] getUpsertParams(Object entity, DefaultFieldConverter defaultFieldConverter) {
+		List<Object> params = new ArrayList<>(
+				Arrays.asList(getInsertParams(Collections.singletonList(entity), defaultFieldConverter).getParams().get(0)));
+		SerializeContext context = new DBSerializeContext(entity, null, InsertUpdate.UPDATE, defaultFieldConverter);
+		iterateUpsertFields(false, new ColumnValueRetriever(params, context));
+		return params.toArray();
+	}
+
+	/**
+	 * Columns of the insert, in the order of the parameters of
+	 * {@link #getInsertParams}.
+	 */
+	List<String> getInsertColumns(Object entity, DefaultFieldConverter defaultFieldConverter) {
 		SerializeContext context = new DBSerializeContext(entity, null, InsertUpdate.INSERT, defaultFieldConverter);
 		List<String> insertColumns = new ArrayList<>(normalFields.size() + 1);
 		// 特殊字段
@@ -160,12 +273,25 @@ class EntityMeta {
 		}
 		// 普通字段
 		iterateNormalFields(false, null, new ColumnNameRetriever(insertColumns, context));
-		// 组装SQL
-		insertSql = new StringBuilder("insert into ").append(tableName).append('(')
-				.append(StringUtil.join(insertColumns)).append(") values(")
-				.append(StringUtil.join(insertColumns.stream().map(i -> "?").collect(Collectors.toList()))).append(')')
-				.toString();
-		return insertSql;
+		return insertColumns;
+	}
+
+	/**
+	 * Insert columns of {@link BulkLoader}, without the id column of
+	 * {@link IdStrategy#INCREMENT} which is generated by the database.
+	 */
+	List<String> getBulkLoadColumns(Object entity, DefaultFieldConverter defaultFieldConverter) {
+		List<String> columns = getInsertColumns(entity, defaultFieldConverter);
+		return isIncrementId() ? columns.subList(1, columns.size()) : columns;
+	}
+
+	Object[] getBulkLoadRow(Object entity, DefaultFieldConverter defaultFieldConverter) {
+		Object[] params = getInsertParams(Collections.singletonList(entity), defaultFieldConverter).getParams().get(0);
+		return isIncrementId() ? Arrays.copyOfRange(params, 1, params.length) : params;
+	}
+
+	private boolean isIncrementId() {
+		return idInfo != null && idInfo.strategy() == IdStrategy.INCREMENT;
 	}
 
 	public SaveParams getInsertParams(List<?> entityList, DefaultFieldConverter defaultFieldConverter) {
@@ -191,6 +317,37 @@ class EntityMeta {
 		return new SaveParams(paramsBatch, newVersions);
 	}
 
+	/**
+	 * Column values of the updatable fields, in field order, used as the snapshot
+	 * of {@link DirtyTracker}.
+	 */
+	Object[] getUpdatableColumnValues(Object entity, DefaultFieldConverter defaultFieldConverter) {
+		SerializeContext context = new DBSerializeContext(entity, null, InsertUpdate.UPDATE, defaultFieldConverter);
+		List<Object> values = new ArrayList<>(normalFields.size());
+		iterateNormalFields(true, null, field -> {
+			Object columnValue = field.getColumnValue(entity, context);
+			values.add(columnValue instanceof MultiColumn ? ((MultiColumn) columnValue).getColumns() : columnValue);
+		});
+		return values.toArray();
+	}
+
+	/**
+	 * Names of the updatable fields whose column values differ from the snapshot,
+	 * in field order so that equal sets share the cached update SQL.
+	 */
+	Set<String> getChangedFields(Object entity, Object[] snapshot, DefaultFieldConverter defaultFieldConverter) {
+		Object[] values = getUpdatableColumnValues(entity, defaultFieldConverter);
+		Set<String> changed = new LinkedHashSet<>();
+		int[] index = { 0 };
+		iterateNormalFields(true, null, field -> {
+			int i = index[0]++;
+			if (!Objects.deepEquals(values[i], snapshot[i])) {
+				changed.add(field.fieldName);
+			}
+		});
+		return changed;
+	}
+
 	public String getUpdateSql(Object entity, Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
 		String sql;
 		if (fields == null) {
@@ -260,12 +417,14 @@ class EntityMeta {
 		return deleteSql;
 	}
 
-	public SqlAndParams getDeleteByIdSqlAndParams(Collection<?> entityIds) {
+	public SqlAndParams getDeleteByIdSqlAndParams(Collection<?> entityIds, InClauseBucketing bucketing) {
 		if (entityIds.size() == 1) {
 			return new SqlAndParams(getDeleteByIdSql(), new Object[] { entityIds.iterator().next() });
 		}
-		StringBuilder sql = appendInClause(makDeleteByIdSql(), entityIds);
-		return new SqlAndParams(sql.toString(), entityIds.toArray(new Object[entityIds.size()]));
+		int bucket = inClauseBucket(bucketing, entityIds.size(), 1);
+		String sql = deleteByIdsSqls.computeIfAbsent(bucket,
+				key -> appendInClause(makDeleteByIdSql(), key).toString());
+		return new SqlAndParams(sql, padInClauseParams(entityIds, bucket));
 	}
 
 	public SqlAndParams getDeleteByEntitySqlAndParams(Object entity) {
@@ -274,12 +433,28 @@ class EntityMeta {
 		return new SqlAndParams(getDeleteSql(), params);
 	}
 
-	public SqlAndBatchParams getDeleteByEntityListSqlAndParams(List<?> entityList) {
-		List<Object[]> batchParams = entityList.stream()
-				.map(i -> versionField == null ? new Object[] { getEntityId(i) }
-						: new Object[] { getEntityId(i), versionField.getColumnValue(i, null) })
-				.collect(Collectors.toList());
-		return new SqlAndBatchParams(getDeleteSql(), batchParams);
+	/**
+	 * One delete of entities with distinct ids: "where id in(...)", or "where
+	 * (id,version) in((?,?),...)" for versioned entities.
+	 */
+	public SqlAndParams getDeleteByEntitiesSqlAndParams(List<?> entityList, InClauseBucketing bucketing) {
+		if (versionField == null) {
+			return getDeleteByIdSqlAndParams(entityList.stream().map(this::getEntityId).collect(Collectors.toList()),
+					bucketing);
+		}
+		if (entityList.size() == 1) {
+			return getDeleteByEntitySqlAndParams(entityList.get(0));
+		}
+		int bucket = inClauseBucket(bucketing, entityList.size(), 2);
+		String sql = deleteByIdVersionsSqls.computeIfAbsent(bucket, key -> makeDeleteByIdVersionsSql(key));
+		Object[] params = new Object[bucket * 2];
+		for (int i = 0; i < bucket; i++) {
+			// 不足的占位符重复最后一个实体补齐
+			Object entity = entityList.get(Math.min(i, entityList.size() - 1));
+			params[i * 2] = getEntityId(entity);
+			params[i * 2 + 1] = versionField.getColumnValue(entity, null);
+		}
+		return new SqlAndParams(sql, params);
 	}
 
 	public String getExistsByIdSql() {
@@ -290,31 +465,119 @@ class EntityMeta {
 		return existsByIdSql;
 	}
 
-	public String getFindByIdSql() {
-		if (findByIdSql == null) {
-			findByIdSql = makeFindByIdSql().append("=?").toString();
+	public String getFindByIdSql(Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		return findByIdSqls.computeIfAbsent(selectKey(fields, defaultFieldConverter),
+				key -> makeFindByIdSql(fields, defaultFieldConverter).append("=?").toString());
+	}
+
+	public SqlAndParams getFindByIdsSqlAndParams(Collection<?> ids, Set<String> fields,
+			DefaultFieldConverter defaultFieldConverter, InClauseBucketing bucketing) {
+		int bucket = inClauseBucket(bucketing, ids.size(), 1);
+		String sql = findByIdsSqls.computeIfAbsent(selectKey(fields, defaultFieldConverter) + "#" + bucket,
+				key -> appendInClause(makeFindByIdSql(fields, defaultFieldConverter), bucket).toString());
+		return new SqlAndParams(sql, padInClauseParams(ids, bucket));
+	}
+
+	/**
+	 * "select ... from table" of the columns of the fields, the id column is always
+	 * selected. Null fields select all the mapped columns. Selects * instead if a
+	 * selected field has a converter, since converters may read other columns of
+	 * the row or read a {@link MultiColumn}, and also with a DefaultFieldConverter
+	 * other than {@link BuildInDefautFieldConverter}, which may write a
+	 * MultiColumn of columns not known here.
+	 */
+	public String getSelectSql(Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		return selectSqls.computeIfAbsent(selectKey(fields, defaultFieldConverter),
+				key -> makeSelectSql(fields, defaultFieldConverter));
+	}
+
+	/**
+	 * Finds by values of the field, which is the id field or the relation field of
+	 * a @ManyToOne/@OneToOne.
+	 */
+	public SqlAndParams getFindByFieldValuesSqlAndParams(EntityField field, Collection<?> values,
+			DefaultFieldConverter defaultFieldConverter, InClauseBucketing bucketing) {
+		if (field == idField) {
+			return getFindByIdsSqlAndParams(values, null, defaultFieldConverter, bucketing);
+		}
+		int bucket = inClauseBucket(bucketing, values.size(), 1);
+		String sql = findByColumnValuesSqls.computeIfAbsent(
+				field.columnName + "#" + selectKey(null, defaultFieldConverter) + "#" + bucket,
+				key -> appendInClause(new StringBuilder(getSelectSql(null, defaultFieldConverter)).append(where())
+						.append(field.columnName), bucket).toString());
+		return new SqlAndParams(sql, padInClauseParams(values, bucket));
+	}
+
+	public EntityField getRelationField(String fieldName) {
+		for (EntityField field : normalFields) {
+			if (field.relation && field.fieldName.equals(fieldName)) {
+				return field;
+			}
 		}
-		return findByIdSql;
+		throw new RepositoryException("No @ManyToOne or @OneToOne field '" + fieldName + "' in " + tableName);
 	}
 
-	public String getFindByIdsSql(Collection<?> ids) {
-		return appendInClause(makeFindByIdSql(), ids).toString();
+	/**
+	 * Columns set by the update of the fields, in the order of the parameters of
+	 * {@link #getUpdateParams}, excluding the version column.
+	 */
+	List<String> getUpdateColumns(Object entity, Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		SerializeContext context = new DBSerializeContext(entity, fields, InsertUpdate.UPDATE, defaultFieldConverter);
+		List<String> updateColumns = new ArrayList<>(normalFields.size());
+		if (fields == null || !fields.isEmpty()) {
+			iterateNormalFields(true, fields, new ColumnNameRetriever(updateColumns, context));
+		}
+		return updateColumns;
+	}
+
+	/**
+	 * "update table set c1=case id when ? then ? ... end, ... where id in (...)"
+	 * of rows of {@link #getUpdateParams} (column values followed by the id) of
+	 * unversioned entities with distinct ids. Rows are padded to the IN clause
+	 * bucket by repeating the last row.
+	 */
+	SqlAndParams getCaseUpdateSqlAndParams(List<String> columns, List<Object[]> paramsBatch,
+			InClauseBucketing bucketing) {
+		int bucket = inClauseBucket(bucketing, paramsBatch.size(), columns.size() * 2 + 1);
+		String sql = caseUpdateSqls.computeIfAbsent(StringUtil.join(columns) + "#" + bucket,
+				key -> makeCaseUpdateSql(columns, bucket));
+		Object[] last = paramsBatch.get(paramsBatch.size() - 1);
+		int idIndex = columns.size();
+		Object[] params = new Object[bucket * (columns.size() * 2 + 1)];
+		int k = 0;
+		for (int c = 0; c < columns.size(); c++) {
+			for (int r = 0; r < bucket; r++) {
+				Object[] row = r < paramsBatch.size() ? paramsBatch.get(r) : last;
+				params[k++] = row[idIndex];
+				params[k++] = row[c];
+			}
+		}
+		for (int r = 0; r < bucket; r++) {
+			params[k++] = (r < paramsBatch.size() ? paramsBatch.get(r) : last)[idIndex];
+		}
+		return new SqlAndParams(sql, params);
 	}
 
-	public String getFindAllSql() {
-		if (findAllSql == null) {
-			findAllSql = new StringBuilder("select * from ").append(tableName).toString();
+	private String makeCaseUpdateSql(List<String> columns, int rows) {
+		String idColumn = getIdColumnName();
+		StringBuilder b = new StringBuilder("update ").append(tableName).append(" set ");
+		for (int c = 0; c < columns.size(); c++) {
+			if (c > 0) {
+				b.append(',');
+			}
+			b.append(columns.get(c)).append("=case ").append(idColumn);
+			for (int r = 0; r < rows; r++) {
+				b.append(" when ? then ?");
+			}
+			b.append(" end");
 		}
-		return findAllSql;
+		b.append(where()).append(idColumn);
+		return appendInClause(b, rows).toString();
 	}
 
 	private String makeUpdateSql(Object entity, Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
-		SerializeContext context = new DBSerializeContext(entity, fields, InsertUpdate.UPDATE, defaultFieldConverter);
 		// 更新字段
-		List<String> updateColumns = new ArrayList<>(normalFields.size());
-		if (fields == null || !fields.isEmpty()) {
-			iterateNormalFields(true, fields, new ColumnNameRetriever(updateColumns, context));
-		}
+		List<String> updateColumns = getUpdateColumns(entity, fields, defaultFieldConverter);
 		if (versionField != null) {
 			updateColumns.add(versionField.columnName);
 		}
@@ -432,8 +695,76 @@ class EntityMeta {
 		});
 	}
 
-	private StringBuilder makeFindByIdSql() {
-		return new StringBuilder("select * from ").append(tableName).append(where()).append(getIdColumnName());
+	private void iterateUpsertFields(boolean insertable, FieldHandler fieldHandler) {
+		iterateNormalFields(true, null, field -> {
+			if (field.column.insertable() == insertable) {
+				fieldHandler.handle(field);
+			}
+		});
+	}
+
+	private StringBuilder makeFindByIdSql(Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		return new StringBuilder(getSelectSql(fields, defaultFieldConverter)).append(where())
+				.append(getIdColumnName());
+	}
+
+	private String makeSelectSql(Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		List<String> columns = new ArrayList<>(normalFields.size() + 1);
+		if (idField != null) {
+			columns.add(idField.columnName);
+		}
+		// 转换器可能读取其他列或多列(MultiColumn)，列名无法确定时查询所有列
+		boolean selectAll = !isBuildInConverter(defaultFieldConverter);
+		if (fields == null) {
+			for (EntityField field : normalFields) {
+				selectAll |= field.getConverter() != null;
+				columns.add(field.columnName);
+			}
+		} else {
+			Set<String> foundFields = new HashSet<>();
+			if (idField != null && fields.contains(idField.fieldName)) {
+				foundFields.add(idField.fieldName);
+			}
+			for (EntityField field : normalFields) {
+				if (fields.contains(field.fieldName)) {
+					selectAll |= field.getConverter() != null;
+					columns.add(field.columnName);
+					foundFields.add(field.fieldName);
+				}
+			}
+			if (foundFields.size() < fields.size()) {
+				Set<String> notFound = new HashSet<>(fields);
+				notFound.removeAll(foundFields);
+				throw new RepositoryException("Fields not found in " + tableName + ": " + StringUtil.join(notFound));
+			}
+		}
+		if (selectAll) {
+			return "select * from " + tableName;
+		}
+		return new StringBuilder("select ").append(StringUtil.join(columns)).append(" from ").append(tableName)
+				.toString();
+	}
+
+	// 自定义的DefaultFieldConverter可能把字段写为MultiColumn
+	private static boolean isBuildInConverter(DefaultFieldConverter defaultFieldConverter) {
+		return defaultFieldConverter.getClass() == BuildInDefautFieldConverter.class;
+	}
+
+	private static String selectKey(Set<String> fields, DefaultFieldConverter defaultFieldConverter) {
+		String key = fields == null ? "*" : fields.stream().sorted().collect(Collectors.joining(","));
+		return isBuildInConverter(defaultFieldConverter) ? key : "!" + key;
+	}
+
+	private String makeDeleteByIdVersionsSql(int size) {
+		StringBuilder sql = new StringBuilder("delete from ").append(tableName).append(where()).append('(')
+				.append(getIdColumnName()).append(',').append(versionField.getColumnName()).append(") in(");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append("(?,?)");
+		}
+		return sql.append(')').toString();
 	}
 
 	private StringBuilder makDeleteByIdSql() {
@@ -444,9 +775,33 @@ class EntityMeta {
 		return new StringBuilder(" where ");
 	}
 
-	private static StringBuilder appendInClause(StringBuilder sql, Collection<?> items) {
+	/**
+	 * IN子句占位符个数按分档取整，使同一实体只产生少量SQL形态，便于驱动和数据库缓存预编译语句；补齐后超过占位符上限时不补齐
+	 */
+	private static int inClauseBucket(InClauseBucketing bucketing, int size, int paramsPerRow) {
+		int bucket = bucketing.bucket(size);
+		if (bucket < size) {
+			throw new RepositoryException("Bad IN clause bucket " + bucket + " for " + size + " values");
+		}
+		if ((long) bucket * paramsPerRow > MultiRowInsert.MAX_PLACEHOLDERS) {
+			return size;
+		}
+		return bucket;
+	}
+
+	// 不足的占位符重复最后一个id补齐，不影响查询和删除结果
+	private static Object[] padInClauseParams(Collection<?> items, int bucket) {
+		Object[] params = items.toArray(new Object[bucket]);
+		if (params.length > items.size()) {
+			// toArray在数组有剩余时会把下一个元素置为null
+			Arrays.fill(params, items.size(), bucket, params[items.size() - 1]);
+		}
+		return params;
+	}
+
+	private static StringBuilder appendInClause(StringBuilder sql, int size) {
 		sql.append(" in(");
-		for (int i = 0; i < items.size(); i++) {
+		for (int i = 0; i < size; i++) {
 			if (i > 0) {
 				sql.append(",?");
 			} else {
@@ -0,0 +1,59 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Binds entity fields to the column indexes of one result shape, so that rows
+ * can be mapped by index instead of looking up every column by name.
+ */
+class EntityRowBinding {
+	private final String[] columnLabels;
+	private final Map<String, Integer> columnIndexes;
+	private final EntityField[] fields;
+	private final int[] fieldIndexes;
+
+	EntityRowBinding(String[] columnLabels, Map<String, Integer> columnIndexes, List<EntityField> fields) {
+		super();
+		this.columnLabels = columnLabels;
+		this.columnIndexes = Collections.unmodifiableMap(columnIndexes);
+		this.fields = fields.toArray(new EntityField[fields.size()]);
+		this.fieldIndexes = new int[this.fields.length];
+		for (int i = 0; i < this.fields.length; i++) {
+			Integer index = columnIndexes.get(normalize(this.fields[i].columnName));
+			this.fieldIndexes[i] = index == null ? -1 : index;
+		}
+	}
+
+	static String normalize(String columnLabel) {
+		return columnLabel.toLowerCase(Locale.ENGLISH);
+	}
+
+	int getColumnCount() {
+		return columnLabels.length;
+	}
+
+	String getColumnLabel(int index) {
+		return columnLabels[index];
+	}
+
+	int getColumnIndex(String columnLabel) {
+		Integer index = columnIndexes.get(normalize(columnLabel));
+		return index == null ? -1 : index;
+	}
+
+	EntityField[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return index into the row values of the i-th field, or -1 if the column is
+	 *         absent from this result shape
+	 */
+	int getFieldIndex(int i) {
+		return fieldIndexes[i];
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.sunnysuperman.repository.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Maps rows straight from the ResultSet into entities. Not thread-safe: create
+ * one instance per query, the column binding is resolved on the first row.
+ */
+class EntityRowMapper<T> implements RowMapper<T> {
+	private final Class<T> entityClass;
+	private final DefaultFieldConverter defaultFieldConverter;
+	private EntityRowBinding binding;
+
+	EntityRowMapper(Class<T> entityClass, DefaultFieldConverter defaultFieldConverter) {
+		super();
+		this.entityClass = entityClass;
+		this.defaultFieldConverter = defaultFieldConverter;
+	}
+
+	@Override
+	public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+		if (binding == null) {
+			binding = EntityManager.getEntityMetaOf(entityClass).getRowBinding(rs.getMetaData());
+		}
+		Object[] row = new Object[binding.getColumnCount()];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = JdbcUtils.getResultSetValue(rs, i + 1);
+		}
+		return EntityManager.deserialize(row, binding, entityClass, defaultFieldConverter);
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sunnysuperman.commons.page.Page;
+import com.sunnysuperman.commons.util.FormatUtil;
+
+/**
+ * Takes the total from the optimizer's row estimate (MySQL EXPLAIN of the data
+ * query: rows * filtered of the first table), which is the same statistic as
+ * information_schema.tables.table_rows for queries without conditions. Small
+ * estimates, below <code>exactThreshold</code>, are replaced by an exact count.
+ */
+public class EstimatedCountStrategy extends ExactCountStrategy {
+	private static final Logger LOG = LoggerFactory.getLogger(EstimatedCountStrategy.class);
+	private final int exactThreshold;
+
+	public EstimatedCountStrategy(int exactThreshold) {
+		super();
+		this.exactThreshold = exactThreshold;
+	}
+
+	@Override
+	public <T> Page<T> findForPage(PageQuery<T> query) {
+		List<T> items = query.findItems();
+		int size = items.size();
+		if (size == 0) {
+			return Page.empty(query.getLimit());
+		}
+		if (requireCount(query, size)) {
+			long estimated = estimate(query);
+			if (estimated < exactThreshold) {
+				size = query.count();
+			} else {
+				// 估算值不能小于已经读到的行数
+				size = (int) Math.min(Integer.MAX_VALUE, Math.max(estimated, (long) query.getOffset() + size));
+			}
+		}
+		return new Page<>(items, size, query.getOffset(), query.getLimit());
+	}
+
+	protected long estimate(PageQuery<?> query) {
+		try {
+			List<Map<String, Object>> plan = query.getJdbcTemplate().queryForList("explain " + query.getSql(),
+					query.getParams());
+			if (plan.isEmpty()) {
+				return -1;
+			}
+			Map<String, Object> first = plan.get(0);
+			long rows = FormatUtil.parseLongValue(first.get("rows"), -1);
+			Number filtered = FormatUtil.parseNumber(first.get("filtered"));
+			if (rows < 0 || filtered == null) {
+				return rows;
+			}
+			return (long) (rows * filtered.doubleValue() / 100);
+		} catch (RuntimeException ex) {
+			LOG.warn("Failed to estimate rows of {}", query.getSql(), ex);
+			return -1;
+		}
+	}
+
+}
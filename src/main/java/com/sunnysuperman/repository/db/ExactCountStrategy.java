@@ -0,0 +1,42 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.List;
+
+import com.sunnysuperman.commons.page.Page;
+
+/**
+ * Runs the count query after the data query, unless the total is already known
+ * from the first page.
+ */
+public class ExactCountStrategy implements CountStrategy {
+	private static final ExactCountStrategy INSTANCE = new ExactCountStrategy();
+
+	protected ExactCountStrategy() {
+	}
+
+	public static ExactCountStrategy getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public <T> Page<T> findForPage(PageQuery<T> query) {
+		List<T> items = query.findItems();
+		int size = items.size();
+		if (size == 0) {
+			return Page.empty(query.getLimit());
+		}
+		if (requireCount(query, size)) {
+			size = count(query);
+		}
+		return new Page<>(items, size, query.getOffset(), query.getLimit());
+	}
+
+	protected boolean requireCount(PageQuery<?> query, int size) {
+		return query.getOffset() != 0 || size == query.getLimit();
+	}
+
+	protected int count(PageQuery<?> query) {
+		return query.count();
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Relation fields (annotated with @ManyToOne or @OneToOne) to load together
+ * with entities, each with an optional nested plan for the relation entity.
+ *
+ * <pre>
+ * FetchPlan.of("customer", "product").fetch("customer", FetchPlan.of("address"))
+ * </pre>
+ *
+ * @see DBCRUDRepository#hydrate(java.util.List, FetchPlan)
+ */
+public class FetchPlan {
+	private final Map<String, FetchPlan> fields = new LinkedHashMap<>();
+
+	private FetchPlan() {
+	}
+
+	public static FetchPlan of(String... fields) {
+		FetchPlan plan = new FetchPlan();
+		for (String field : fields) {
+			plan.fetch(field);
+		}
+		return plan;
+	}
+
+	public FetchPlan fetch(String field) {
+		fields.putIfAbsent(field, null);
+		return this;
+	}
+
+	public FetchPlan fetch(String field, FetchPlan nested) {
+		fields.put(field, nested);
+		return this;
+	}
+
+	/**
+	 * Relation field names mapped to nested plans, null if none.
+	 */
+	public Map<String, FetchPlan> getFields() {
+		return Collections.unmodifiableMap(fields);
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.sunnysuperman.repository.db;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Builds getters/setters of entity fields with LambdaMetafactory, so that field
+ * access is a plain interface call instead of Method.invoke. Falls back to
+ * reflection when a lambda can not be spun for the method.
+ */
+final class FieldAccessors {
+	private static final Logger LOG = LoggerFactory.getLogger(FieldAccessors.class);
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private FieldAccessors() {
+	}
+
+	@SuppressWarnings("unchecked")
+	static Function<Object, Object> getter(Method readMethod) {
+		if (isLambdaAccessible(readMethod)) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(readMethod);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+						MethodType.methodType(Object.class, Object.class), handle,
+						MethodType.methodType(wrap(readMethod.getReturnType()), readMethod.getDeclaringClass()));
+				return (Function<Object, Object>) site.getTarget().invokeExact();
+			} catch (Throwable e) {
+				LOG.warn("Failed to make getter of {}, fallback to reflection", readMethod, e);
+			}
+		}
+		return entity -> {
+			try {
+				return readMethod.invoke(entity);
+			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				throw new RepositoryException(e);
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	static BiConsumer<Object, Object> setter(Method writeMethod) {
+		if (isLambdaAccessible(writeMethod)) {
+			try {
+				MethodHandle handle = LOOKUP.unreflect(writeMethod);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+						MethodType.methodType(BiConsumer.class),
+						MethodType.methodType(void.class, Object.class, Object.class), handle,
+						MethodType.methodType(void.class, writeMethod.getDeclaringClass(),
+								wrap(writeMethod.getParameterTypes()[0])));
+				return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+			} catch (Throwable e) {
+				LOG.warn("Failed to make setter of {}, fallback to reflection", writeMethod, e);
+			}
+		}
+		return (entity, value) -> {
+			try {
+				writeMethod.invoke(entity, value);
+			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				throw new RepositoryException(e);
+			}
+		};
+	}
+
+	private static boolean isLambdaAccessible(Method method) {
+		Class<?> clazz = method.getDeclaringClass();
+		if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(clazz.getModifiers())) {
+			return false;
+		}
+		// 生成的类定义在本类的ClassLoader中，需能看到实体类
+		try {
+			return Class.forName(clazz.getName(), false, FieldAccessors.class.getClassLoader()) == clazz;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		}
+		return MethodType.methodType(type).wrap().returnType();
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent point lookups into one batched load. The first caller of
+ * a batch waits for the window (or until the batch is full), closes the batch
+ * and loads all ids at once in its own thread; the others wait for its result.
+ * Duplicate ids share one query, later callers of the same id get a copy.
+ */
+class FindByIdBatcher<I, T> {
+	private final long windowNanos;
+	private final int maxBatchSize;
+	private final Function<Collection<I>, Map<I, T>> loader;
+	private final UnaryOperator<T> copier;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition full = lock.newCondition();
+	private Batch<I, T> current;
+
+	FindByIdBatcher(long windowMicros, int maxBatchSize, Function<Collection<I>, Map<I, T>> loader,
+			UnaryOperator<T> copier) {
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxBatchSize = Math.max(maxBatchSize, 1);
+		this.loader = loader;
+		this.copier = copier;
+	}
+
+	T load(I id) {
+		Batch<I, T> batch;
+		CompletableFuture<T> future;
+		boolean leader = false;
+		boolean shared;
+		lock.lock();
+		try {
+			if (current == null) {
+				current = new Batch<>();
+				leader = true;
+			}
+			batch = current;
+			future = batch.futures.get(id);
+			shared = future != null;
+			if (!shared) {
+				future = new CompletableFuture<>();
+				batch.futures.put(id, future);
+			}
+			if (batch.futures.size() >= maxBatchSize) {
+				current = null;
+				full.signalAll();
+			} else if (leader) {
+				awaitWindow(batch);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (leader) {
+			// 批次已关闭，不会再有新id加入
+			execute(batch);
+		}
+		T entity;
+		try {
+			entity = future.join();
+		} catch (CompletionException e) {
+			// 批次只会以RuntimeException或Error异常完成
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw (RuntimeException) e.getCause();
+		}
+		return shared && entity != null ? copier.apply(entity) : entity;
+	}
+
+	private void awaitWindow(Batch<I, T> batch) {
+		long nanos = windowNanos;
+		try {
+			while (current == batch && nanos > 0) {
+				nanos = full.awaitNanos(nanos);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (current == batch) {
+			current = null;
+		}
+	}
+
+	private void execute(Batch<I, T> batch) {
+		try {
+			Map<I, T> result = loader.apply(batch.futures.keySet());
+			batch.futures.forEach((id, future) -> future.complete(result.get(id)));
+		} catch (RuntimeException | Error e) {
+			batch.futures.values().forEach(future -> future.completeExceptionally(e));
+		}
+	}
+
+	private static class Batch<I, T> {
+		final Map<I, CompletableFuture<T>> futures = new LinkedHashMap<>();
+	}
+
+}
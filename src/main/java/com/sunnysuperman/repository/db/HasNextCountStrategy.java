@@ -0,0 +1,42 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.List;
+
+import com.sunnysuperman.commons.page.Page;
+
+/**
+ * Skips counting: reads <code>limit + 1</code> rows and reports a total of
+ * <code>offset + items + 1</code> if there is a next page, or
+ * <code>offset + items</code> otherwise. Enough for "next page" navigation, not
+ * for showing the number of pages.
+ */
+public class HasNextCountStrategy implements CountStrategy {
+	private static final HasNextCountStrategy INSTANCE = new HasNextCountStrategy();
+
+	protected HasNextCountStrategy() {
+	}
+
+	public static HasNextCountStrategy getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public <T> Page<T> findForPage(PageQuery<T> query) {
+		int limit = query.getLimit();
+		if (limit <= 0) {
+			return ExactCountStrategy.getInstance().findForPage(query);
+		}
+		List<T> items = query.findItems(limit + 1);
+		int size = items.size();
+		if (size == 0) {
+			return Page.empty(limit);
+		}
+		boolean hasNext = size > limit;
+		if (hasNext) {
+			items = items.subList(0, limit);
+		}
+		int total = query.getOffset() + items.size() + (hasNext ? 1 : 0);
+		return new Page<>(items, total, query.getOffset(), limit);
+	}
+
+}
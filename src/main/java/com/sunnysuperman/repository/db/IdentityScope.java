@@ -0,0 +1,134 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Identity map of the entities loaded by {@link DBCRUDRepository} in the
+ * current thread. Within the scope findById/findByIds/getById return the
+ * instance already loaded instead of querying again, and writes through the
+ * repositories replace or evict it. Writes by other means are not seen.
+ *
+ * <pre>
+ * try (IdentityScope scope = IdentityScope.open()) {
+ * 	...
+ * }
+ * </pre>
+ *
+ * or {@link #bindToTransaction()} to keep the scope until the current Spring
+ * transaction completes. Opening a scope while one is active joins it.
+ */
+public class IdentityScope implements AutoCloseable {
+	private static final ThreadLocal<IdentityScope> CURRENT = new ThreadLocal<>();
+
+	private final Map<Class<?>, Map<Object, Object>> entities = new HashMap<>();
+	private int depth;
+
+	private IdentityScope() {
+	}
+
+	public static IdentityScope open() {
+		IdentityScope scope = current();
+		if (scope == null) {
+			scope = new IdentityScope();
+			CURRENT.set(scope);
+		}
+		scope.depth++;
+		return scope;
+	}
+
+	/**
+	 * Opens a scope closed when the current Spring transaction completes.
+	 */
+	public static IdentityScope bindToTransaction() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			throw new RepositoryException("No transaction synchronization active");
+		}
+		IdentityScope scope = (IdentityScope) TransactionSynchronizationManager.getResource(IdentityScope.class);
+		if (scope != null) {
+			return scope;
+		}
+		IdentityScope joined = CURRENT.get();
+		scope = joined != null ? joined : new IdentityScope();
+		scope.depth++;
+		TransactionSynchronizationManager.bindResource(IdentityScope.class, scope);
+		IdentityScope boundScope = scope;
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(IdentityScope.class);
+				// 回滚后已加载的实体可能与数据库不一致
+				if (status != STATUS_COMMITTED) {
+					boundScope.clear();
+				}
+				boundScope.close();
+			}
+
+		});
+		return scope;
+	}
+
+	/**
+	 * The scope active in the current thread or transaction, null if none.
+	 */
+	public static IdentityScope current() {
+		IdentityScope scope = CURRENT.get();
+		if (scope == null && TransactionSynchronizationManager.isSynchronizationActive()) {
+			scope = (IdentityScope) TransactionSynchronizationManager.getResource(IdentityScope.class);
+		}
+		return scope;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<T> type, Object id) {
+		Map<Object, Object> map = entities.get(type);
+		return map == null ? null : (T) map.get(id);
+	}
+
+	public void put(Class<?> type, Object id, Object entity) {
+		entities.computeIfAbsent(type, key -> new HashMap<>()).put(id, entity);
+	}
+
+	/**
+	 * Returns the instance already in scope if any, otherwise puts the entity and
+	 * returns it.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T putIfAbsent(Class<T> type, Object id, T entity) {
+		Object existing = entities.computeIfAbsent(type, key -> new HashMap<>()).putIfAbsent(id, entity);
+		return existing != null ? (T) existing : entity;
+	}
+
+	public void evict(Class<?> type, Object id) {
+		Map<Object, Object> map = entities.get(type);
+		if (map != null) {
+			map.remove(id);
+		}
+	}
+
+	public void evictAll(Class<?> type) {
+		entities.remove(type);
+	}
+
+	public void clear() {
+		entities.clear();
+	}
+
+	@Override
+	public void close() {
+		if (--depth > 0) {
+			return;
+		}
+		entities.clear();
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.sunnysuperman.repository.db;
+
+/**
+ * Rounds the number of values of an IN clause up to a bucket size, so that
+ * queries of different sizes share a few cached statements. The missing values
+ * are padded by repeating the last one. A bucket that would exceed the 65535
+ * placeholders limit is not padded.
+ *
+ * @see DBCRUDRepository#getInClauseBucketing()
+ */
+@FunctionalInterface
+public interface InClauseBucketing {
+
+	/**
+	 * Next power of two, sizes up to 2 are not padded.
+	 */
+	InClauseBucketing POWER_OF_TWO = size -> size <= 2 ? size : Integer.highestOneBit(size - 1) << 1;
+
+	/**
+	 * No padding, one statement per size.
+	 */
+	InClauseBucketing EXACT = size -> size;
+
+	/**
+	 * @return bucket size, not less than size
+	 */
+	int bucket(int size);
+
+	/**
+	 * Next multiple of step, e.g. 8, 16, 24... for step 8.
+	 */
+	static InClauseBucketing multipleOf(int step) {
+		if (step <= 0) {
+			throw new IllegalArgumentException("step");
+		}
+		return size -> (size + step - 1) / step * step;
+	}
+
+}
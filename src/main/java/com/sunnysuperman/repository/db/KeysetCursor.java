@@ -0,0 +1,170 @@
+package com.sunnysuperman.repository.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Base64;
+import java.util.Date;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Opaque encoding of the sort key values of the last row of a keyset page. Each
+ * value keeps its type so that it is bound back with the same JDBC type.
+ */
+final class KeysetCursor {
+	private static final int FORMAT_VERSION = 1;
+
+	private KeysetCursor() {
+	}
+
+	static String encode(Object[] values) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(FORMAT_VERSION);
+			out.writeByte(values.length);
+			for (Object value : values) {
+				writeValue(out, value);
+			}
+		} catch (IOException e) {
+			throw new RepositoryException(e);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+	}
+
+	static Object[] decode(String cursor, int size) {
+		try (DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+			if (in.readByte() != FORMAT_VERSION) {
+				throw new RepositoryException("Bad cursor: " + cursor);
+			}
+			if (in.readByte() != size) {
+				throw new RepositoryException("Cursor does not match sort keys: " + cursor);
+			}
+			Object[] values = new Object[size];
+			for (int i = 0; i < size; i++) {
+				values[i] = readValue(in);
+			}
+			return values;
+		} catch (IOException | IllegalArgumentException e) {
+			throw new RepositoryException("Bad cursor: " + cursor, e);
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte('N');
+		} else if (value instanceof Long) {
+			out.writeByte('J');
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			out.writeByte('I');
+			out.writeInt((Integer) value);
+		} else if (value instanceof Short) {
+			out.writeByte('S');
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte('B');
+			out.writeByte((Byte) value);
+		} else if (value instanceof Double) {
+			out.writeByte('D');
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte('F');
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte('Z');
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof BigDecimal) {
+			out.writeByte('M');
+			out.writeUTF(value.toString());
+		} else if (value instanceof BigInteger) {
+			out.writeByte('G');
+			out.writeUTF(value.toString());
+		} else if (value instanceof String) {
+			out.writeByte('s');
+			out.writeUTF((String) value);
+		} else if (value instanceof Timestamp) {
+			out.writeByte('T');
+			out.writeLong(((Timestamp) value).getTime());
+			out.writeInt(((Timestamp) value).getNanos());
+		} else if (value instanceof java.sql.Date) {
+			out.writeByte('d');
+			out.writeLong(((java.sql.Date) value).getTime());
+		} else if (value instanceof Time) {
+			out.writeByte('t');
+			out.writeLong(((Time) value).getTime());
+		} else if (value instanceof Date) {
+			out.writeByte('U');
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof LocalDateTime) {
+			out.writeByte('X');
+			out.writeUTF(value.toString());
+		} else if (value instanceof LocalDate) {
+			out.writeByte('x');
+			out.writeUTF(value.toString());
+		} else if (value instanceof LocalTime) {
+			out.writeByte('y');
+			out.writeUTF(value.toString());
+		} else {
+			throw new RepositoryException("Unsupported type of keyset value: " + value.getClass());
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case 'N':
+			return null;
+		case 'J':
+			return in.readLong();
+		case 'I':
+			return in.readInt();
+		case 'S':
+			return in.readShort();
+		case 'B':
+			return in.readByte();
+		case 'D':
+			return in.readDouble();
+		case 'F':
+			return in.readFloat();
+		case 'Z':
+			return in.readBoolean();
+		case 'M':
+			return new BigDecimal(in.readUTF());
+		case 'G':
+			return new BigInteger(in.readUTF());
+		case 's':
+			return in.readUTF();
+		case 'T': {
+			Timestamp timestamp = new Timestamp(in.readLong());
+			timestamp.setNanos(in.readInt());
+			return timestamp;
+		}
+		case 'd':
+			return new java.sql.Date(in.readLong());
+		case 't':
+			return new Time(in.readLong());
+		case 'U':
+			return new Date(in.readLong());
+		case 'X':
+			return LocalDateTime.parse(in.readUTF());
+		case 'x':
+			return LocalDate.parse(in.readUTF());
+		case 'y':
+			return LocalTime.parse(in.readUTF());
+		default:
+			throw new IOException("Unknown type of keyset value: " + (char) type);
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Arrays;
+
+/**
+ * Sort keys of a keyset (seek) paginated query, e.g.
+ * <code>KeysetSort.desc("created_at").thenDesc("id")</code>. Instances are
+ * immutable.
+ */
+public class KeysetSort {
+	private final String[] columns;
+	private final boolean[] ascending;
+
+	private KeysetSort(String[] columns, boolean[] ascending) {
+		super();
+		this.columns = columns;
+		this.ascending = ascending;
+	}
+
+	public static KeysetSort asc(String column) {
+		return new KeysetSort(new String[0], new boolean[0]).then(column, true);
+	}
+
+	public static KeysetSort desc(String column) {
+		return new KeysetSort(new String[0], new boolean[0]).then(column, false);
+	}
+
+	public KeysetSort thenAsc(String column) {
+		return then(column, true);
+	}
+
+	public KeysetSort thenDesc(String column) {
+		return then(column, false);
+	}
+
+	public KeysetSort then(String column, boolean asc) {
+		if (column == null || column.isEmpty()) {
+			throw new IllegalArgumentException("column");
+		}
+		if (contains(column)) {
+			throw new IllegalArgumentException("Duplicate sort column: " + column);
+		}
+		String[] newColumns = Arrays.copyOf(columns, columns.length + 1);
+		boolean[] newAscending = Arrays.copyOf(ascending, ascending.length + 1);
+		newColumns[columns.length] = column;
+		newAscending[ascending.length] = asc;
+		return new KeysetSort(newColumns, newAscending);
+	}
+
+	public int size() {
+		return columns.length;
+	}
+
+	public String getColumn(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * Column label in the result set, i.e. the column without table qualifier.
+	 */
+	public String getColumnLabel(int index) {
+		String column = columns[index];
+		int dot = column.lastIndexOf('.');
+		return dot < 0 ? column : column.substring(dot + 1);
+	}
+
+	public boolean isAscending(int index) {
+		return ascending[index];
+	}
+
+	public boolean contains(String column) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(column) || getColumnLabel(i).equalsIgnoreCase(column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if all keys are sorted in the same direction
+	 */
+	public boolean isUniform() {
+		for (int i = 1; i < ascending.length; i++) {
+			if (ascending[i] != ascending[0]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String toOrderBy() {
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				buf.append(',');
+			}
+			buf.append(columns[i]).append(ascending[i] ? " asc" : " desc");
+		}
+		return buf.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toOrderBy();
+	}
+
+}
@@ -12,6 +12,8 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 
 public class LogAwareJdbcTemplate extends JdbcTemplate {
 	private static final Logger LOG = LoggerFactory.getLogger(LogAwareJdbcTemplate.class);
@@ -43,6 +45,32 @@ public class LogAwareJdbcTemplate extends JdbcTemplate {
 		}
 	}
 
+	@Override
+	public <T> List<T> query(String sql, Object[] args, RowMapper<T> rowMapper) throws DataAccessException {
+		long t1 = getT1();
+		try {
+			return super.query(sql, args, rowMapper);
+		} finally {
+			if (INFO_ENABLED) {
+				long take = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+				LOG.info(LOG_MSG, sql, take);
+			}
+		}
+	}
+
+	@Override
+	public void query(String sql, Object[] args, RowCallbackHandler rch) throws DataAccessException {
+		long t1 = getT1();
+		try {
+			super.query(sql, args, rch);
+		} finally {
+			if (INFO_ENABLED) {
+				long take = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+				LOG.info(LOG_MSG, sql, take);
+			}
+		}
+	}
+
 	@Override
 	public <T> T queryForObject(String sql, Object[] args, Class<T> requiredType) throws DataAccessException {
 		long t1 = getT1();
@@ -97,6 +125,17 @@ public class LogAwareJdbcTemplate extends JdbcTemplate {
 		}
 	}
 
+	/**
+	 * Logs a statement that outlives the JdbcTemplate callbacks, e.g. the cursor
+	 * of {@link DBRepository#iterate}, which is logged when it is closed.
+	 */
+	protected void logStatement(String sql, long t1) {
+		if (INFO_ENABLED) {
+			long take = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+			LOG.info(LOG_MSG, sql, take);
+		}
+	}
+
 	private long getT1() {
 		return INFO_ENABLED ? System.nanoTime() : 0;
 	}
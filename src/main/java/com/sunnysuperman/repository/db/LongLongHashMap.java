@@ -0,0 +1,146 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map of primitive long keys to long values, with linear
+ * probing and no boxing. Not thread safe.
+ *
+ * @see DBRepository#findLongToLongMap(String, Object[], int, int)
+ */
+public class LongLongHashMap {
+	private static final long FREE_KEY = 0;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+	private int threshold;
+	// 0作为空槽标记，键0单独保存
+	private boolean hasZeroKey;
+	private long zeroValue;
+
+	public LongLongHashMap() {
+		this(16);
+	}
+
+	public LongLongHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+		allocate(capacity);
+	}
+
+	public interface Visitor {
+		void accept(long key, long value);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(long key) {
+		if (key == FREE_KEY) {
+			return hasZeroKey;
+		}
+		return keys[slot(key)] == key;
+	}
+
+	public long get(long key, long defaultValue) {
+		if (key == FREE_KEY) {
+			return hasZeroKey ? zeroValue : defaultValue;
+		}
+		int slot = slot(key);
+		return keys[slot] == key ? values[slot] : defaultValue;
+	}
+
+	public void put(long key, long value) {
+		if (key == FREE_KEY) {
+			if (!hasZeroKey) {
+				hasZeroKey = true;
+				size++;
+			}
+			zeroValue = value;
+			return;
+		}
+		int slot = slot(key);
+		if (keys[slot] == key) {
+			values[slot] = value;
+			return;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > threshold) {
+			rehash();
+		}
+	}
+
+	public long[] keys() {
+		long[] result = new long[size];
+		int i = 0;
+		if (hasZeroKey) {
+			result[i++] = FREE_KEY;
+		}
+		for (long key : keys) {
+			if (key != FREE_KEY) {
+				result[i++] = key;
+			}
+		}
+		return result;
+	}
+
+	public void forEach(Visitor visitor) {
+		if (hasZeroKey) {
+			visitor.accept(FREE_KEY, zeroValue);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE_KEY) {
+				visitor.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	// 返回key所在的槽，或key应插入的空槽
+	private int slot(long key) {
+		int slot = mix(key) & mask;
+		while (keys[slot] != FREE_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(keys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != FREE_KEY) {
+				int slot = slot(key);
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "LongLongHashMap [size=" + size + ", keys=" + Arrays.toString(keys()) + "]";
+	}
+
+}
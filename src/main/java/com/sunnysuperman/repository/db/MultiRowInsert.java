@@ -0,0 +1,99 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Splits rows of a single-row "insert into t(...) values(?,...)" into
+ * multi-row statements bounded by a row budget, the 65535 placeholders a
+ * prepared statement may hold and an estimated packet size.
+ */
+class MultiRowInsert {
+	static final int MAX_PLACEHOLDERS = 65535;
+	private static final String VALUES = " values(";
+
+	private final String prefix;
+	private final String rowPlaceholders;
+	private final int columnCount;
+
+	MultiRowInsert(String singleRowSql, int columnCount) {
+		int index = singleRowSql.lastIndexOf(VALUES);
+		if (index < 0 || !singleRowSql.endsWith(")")) {
+			throw new RepositoryException("Not a single-row insert: " + singleRowSql);
+		}
+		this.prefix = singleRowSql.substring(0, index + VALUES.length() - 1);
+		this.rowPlaceholders = singleRowSql.substring(index + VALUES.length() - 1);
+		this.columnCount = columnCount;
+	}
+
+	String getSql(int rows) {
+		StringBuilder sql = new StringBuilder(prefix.length() + (rowPlaceholders.length() + 1) * rows)
+				.append(prefix);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append(rowPlaceholders);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Row counts of the consecutive chunks.
+	 */
+	List<Integer> split(List<Object[]> paramsBatch, int maxRows, long maxPacketBytes) {
+		int rowLimit = Math.max(1, Math.min(maxRows, MAX_PLACEHOLDERS / Math.max(columnCount, 1)));
+		List<Integer> chunks = new ArrayList<>();
+		int rows = 0;
+		long bytes = prefix.length();
+		for (Object[] params : paramsBatch) {
+			long rowBytes = estimateBytes(params);
+			if (rows > 0 && (rows == rowLimit || bytes + rowBytes > maxPacketBytes)) {
+				chunks.add(rows);
+				rows = 0;
+				bytes = prefix.length();
+			}
+			rows++;
+			bytes += rowBytes;
+		}
+		if (rows > 0) {
+			chunks.add(rows);
+		}
+		return chunks;
+	}
+
+	static Object[] flatten(List<Object[]> paramsBatch, int from, int to) {
+		int size = 0;
+		for (int i = from; i < to; i++) {
+			size += paramsBatch.get(i).length;
+		}
+		Object[] params = new Object[size];
+		int offset = 0;
+		for (int i = from; i < to; i++) {
+			Object[] row = paramsBatch.get(i);
+			System.arraycopy(row, 0, params, offset, row.length);
+			offset += row.length;
+		}
+		return params;
+	}
+
+	// 按最坏情况估算：字符串按utf8mb4每字符4字节并考虑转义，其余按固定长度
+	private long estimateBytes(Object[] params) {
+		long bytes = rowPlaceholders.length() + 1;
+		for (Object param : params) {
+			if (param == null) {
+				bytes += 4;
+			} else if (param instanceof CharSequence) {
+				bytes += ((CharSequence) param).length() * 4L + 2;
+			} else if (param instanceof byte[]) {
+				bytes += ((byte[]) param).length * 2L + 2;
+			} else {
+				bytes += 32;
+			}
+		}
+		return bytes;
+	}
+
+}
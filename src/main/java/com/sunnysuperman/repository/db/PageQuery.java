@@ -0,0 +1,72 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.sunnysuperman.repository.db.mapper.DBMapper;
+
+/**
+ * A page query handed to a {@link CountStrategy}.
+ */
+public class PageQuery<T> {
+	private DBRepository repository;
+	private String sql;
+	private String countSql;
+	private Object[] params;
+	private int offset;
+	private int limit;
+	private DBMapper<T> mapper;
+
+	public PageQuery(DBRepository repository, String sql, String countSql, Object[] params, int offset, int limit,
+			DBMapper<T> mapper) {
+		super();
+		this.repository = repository;
+		this.sql = sql;
+		this.countSql = countSql;
+		this.params = params;
+		this.offset = offset;
+		this.limit = limit;
+		this.mapper = mapper;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public String getCountSql() {
+		if (countSql == null) {
+			countSql = repository.getCountDialect(sql);
+		}
+		return countSql;
+	}
+
+	public Object[] getParams() {
+		return params;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public List<T> findItems() {
+		return findItems(limit);
+	}
+
+	public List<T> findItems(int limit) {
+		return repository.findForList(sql, params, offset, limit, mapper);
+	}
+
+	public int count() {
+		return repository.count(getCountSql(), params);
+	}
+
+	JdbcTemplate getJdbcTemplate() {
+		return repository.getJdbcTemplate();
+	}
+
+}
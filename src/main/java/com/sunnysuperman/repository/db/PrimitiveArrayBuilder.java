@@ -0,0 +1,45 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Arrays;
+
+/**
+ * Growable primitive arrays, filled row by row.
+ */
+class PrimitiveArrayBuilder {
+
+	private PrimitiveArrayBuilder() {
+	}
+
+	static class Longs {
+		private long[] items = new long[16];
+		private int size;
+
+		void add(long item) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size << 1);
+			}
+			items[size++] = item;
+		}
+
+		long[] toArray() {
+			return size == items.length ? items : Arrays.copyOf(items, size);
+		}
+	}
+
+	static class Ints {
+		private int[] items = new int[16];
+		private int size;
+
+		void add(int item) {
+			if (size == items.length) {
+				items = Arrays.copyOf(items, size << 1);
+			}
+			items[size++] = item;
+		}
+
+		int[] toArray() {
+			return size == items.length ? items : Arrays.copyOf(items, size);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.sunnysuperman.repository.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Maps the first <code>limit</code> rows of a <code>limit + 1</code> query, the
+ * extra row only tells whether there are more rows. Optionally remembers the
+ * values of some columns of the last mapped row.
+ */
+class PullPageRowMapper<T> implements RowMapper<T> {
+	private final RowMapper<T> rowMapper;
+	private final int limit;
+	private final String[] markerColumns;
+	private boolean hasMore;
+	private Object[] markers;
+
+	PullPageRowMapper(RowMapper<T> rowMapper, int limit, String... markerColumns) {
+		super();
+		this.rowMapper = rowMapper;
+		this.limit = limit;
+		this.markerColumns = markerColumns;
+	}
+
+	@Override
+	public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+		if (rowNum >= limit) {
+			hasMore = true;
+			return null;
+		}
+		if (markerColumns.length > 0 && rowNum == limit - 1) {
+			markers = new Object[markerColumns.length];
+			for (int i = 0; i < markerColumns.length; i++) {
+				markers[i] = JdbcUtils.getResultSetValue(rs, rs.findColumn(markerColumns[i]));
+			}
+		}
+		return rowMapper.mapRow(rs, rowNum);
+	}
+
+	boolean hasMore() {
+		return hasMore;
+	}
+
+	Object[] getMarkers() {
+		return markers;
+	}
+
+}
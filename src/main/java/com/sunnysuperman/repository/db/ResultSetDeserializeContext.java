@@ -0,0 +1,37 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.Map;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+class ResultSetDeserializeContext extends DBDeserializeContext {
+	private final Object[] row;
+	private final EntityRowBinding binding;
+
+	public ResultSetDeserializeContext(Object[] row, EntityRowBinding binding,
+			DefaultFieldConverter defaultFieldConverter) {
+		super(null, defaultFieldConverter);
+		this.row = row;
+		this.binding = binding;
+	}
+
+	@Override
+	public Map<String, Object> getColumns() {
+		// 仅在自定义转换器需要时才构建
+		if (doc == null) {
+			Map<String, Object> columns = new LinkedCaseInsensitiveMap<>(row.length);
+			for (int i = 0; i < row.length; i++) {
+				columns.put(binding.getColumnLabel(i), row[i]);
+			}
+			doc = columns;
+		}
+		return doc;
+	}
+
+	@Override
+	public Object getColumn(String name) {
+		int index = binding.getColumnIndex(name);
+		return index < 0 ? null : row[index];
+	}
+
+}
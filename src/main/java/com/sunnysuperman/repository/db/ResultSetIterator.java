@@ -0,0 +1,112 @@
+package com.sunnysuperman.repository.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Iterates a forward-only, read-only ResultSet row by row. The connection is
+ * held (or, inside a transaction, borrowed) until the iterator is closed, when
+ * the statement is logged by {@link LogAwareJdbcTemplate}.
+ */
+class ResultSetIterator<T> implements CloseableIterator<T> {
+	private final JdbcTemplate jdbcTemplate;
+	private final String sql;
+	private final RowMapper<T> rowMapper;
+	private final DataSource dataSource;
+	private final long t1;
+	private Connection con;
+	private PreparedStatement ps;
+	private ResultSet rs;
+	private int rowNum;
+	private boolean fetched;
+	private boolean hasNext;
+	private boolean closed;
+
+	ResultSetIterator(JdbcTemplate jdbcTemplate, String sql, Object[] params, int fetchSize, RowMapper<T> rowMapper) {
+		super();
+		this.jdbcTemplate = jdbcTemplate;
+		this.sql = sql;
+		this.rowMapper = rowMapper;
+		this.dataSource = jdbcTemplate.getDataSource();
+		this.t1 = System.nanoTime();
+		this.con = DataSourceUtils.getConnection(dataSource);
+		try {
+			ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			ps.setFetchSize(fetchSize);
+			new ArgumentPreparedStatementSetter(params).setValues(ps);
+			rs = ps.executeQuery();
+		} catch (SQLException ex) {
+			close();
+			throw jdbcTemplate.getExceptionTranslator().translate("ResultSetIterator", sql, ex);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (fetched) {
+			return hasNext;
+		}
+		if (closed) {
+			return false;
+		}
+		try {
+			hasNext = rs.next();
+		} catch (SQLException ex) {
+			close();
+			throw jdbcTemplate.getExceptionTranslator().translate("ResultSetIterator", sql, ex);
+		}
+		fetched = true;
+		if (!hasNext) {
+			close();
+		}
+		return hasNext;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		fetched = false;
+		try {
+			return rowMapper.mapRow(rs, rowNum++);
+		} catch (SQLException ex) {
+			close();
+			throw jdbcTemplate.getExceptionTranslator().translate("ResultSetIterator", sql, ex);
+		} catch (RuntimeException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		hasNext = false;
+		fetched = true;
+		JdbcUtils.closeResultSet(rs);
+		rs = null;
+		JdbcUtils.closeStatement(ps);
+		ps = null;
+		DataSourceUtils.releaseConnection(con, dataSource);
+		con = null;
+		if (jdbcTemplate instanceof LogAwareJdbcTemplate) {
+			((LogAwareJdbcTemplate) jdbcTemplate).logStatement(sql, t1);
+		}
+	}
+
+}
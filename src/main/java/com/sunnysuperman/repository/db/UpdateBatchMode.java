@@ -0,0 +1,21 @@
+package com.sunnysuperman.repository.db;
+
+/**
+ * How updateBatch sends the updates of several entities, see
+ * {@link DBCRUDRepository#getUpdateBatchMode()}.
+ */
+public enum UpdateBatchMode {
+
+	/**
+	 * One update statement per entity, sent as a JDBC batch
+	 */
+	JDBC_BATCH,
+
+	/**
+	 * One <code>update ... set c=case id when ? then ? ... end where id in(...)</code>
+	 * statement per chunk of entities. Versioned entities, duplicate ids and
+	 * entities whose columns differ fall back to {@link #JDBC_BATCH}.
+	 */
+	CASE_WHEN
+
+}
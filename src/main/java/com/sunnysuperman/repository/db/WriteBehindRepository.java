@@ -0,0 +1,332 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Buffers updates of a {@link DBCRUDRepository} and writes them asynchronously
+ * with updateBatch. Updates of the same id are merged: field sets are united
+ * (null meaning all fields wins), and when they come from different instances
+ * the field values are merged into a copy owned by the buffer. Pending
+ * updates are flushed by a background thread when batchSize ids are pending or
+ * every flushInterval.
+ * <p>
+ * At most maxPending ids are buffered, update() blocks when the buffer is full
+ * until a flush makes room. Reads through the repository do not see pending
+ * updates. A failed batch is passed to {@link #onFlushError} and not retried.
+ * {@link #close()} stops accepting updates and returns after everything pending
+ * has been flushed. Versioned entities are not supported.
+ */
+public class WriteBehindRepository<T, I> implements AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBehindRepository.class);
+	private final DBCRUDRepository<T, I> repository;
+	private final EntityMeta meta;
+	private final int maxPending;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushNeeded = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	// 保证同一id的先后更新按顺序写入
+	private final Object flushMutex = new Object();
+	private final Map<I, Pending<T>> pending = new LinkedHashMap<>();
+	private final Thread flusher;
+	private boolean closed;
+	private final LongAdder submitCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder blockedCount = new LongAdder();
+	private final LongAdder flushCount = new LongAdder();
+	private final LongAdder flushedEntityCount = new LongAdder();
+	private final LongAdder failedFlushCount = new LongAdder();
+	private final LongAdder totalFlushNanos = new LongAdder();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+
+	public WriteBehindRepository(DBCRUDRepository<T, I> repository, int maxPending, int batchSize,
+			long flushIntervalMillis) {
+		super();
+		if (batchSize <= 0 || maxPending < batchSize) {
+			throw new IllegalArgumentException("Require 0 < batchSize <= maxPending");
+		}
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("flushIntervalMillis");
+		}
+		this.repository = Objects.requireNonNull(repository);
+		this.meta = EntityManager.getEntityMetaOf(repository.getEntityClass());
+		if (meta.getVersionField() != null) {
+			throw new RepositoryException(
+					"Write-behind is not supported for versioned entity " + repository.getEntityClass());
+		}
+		this.maxPending = maxPending;
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.flusher = new Thread(this::runFlusher, "write-behind-" + meta.getTableName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Buffers an update of all updatable fields.
+	 */
+	public void update(T entity) throws RepositoryException {
+		submit(entity, null);
+	}
+
+	/**
+	 * Buffers an update of the given fields.
+	 */
+	public void update(T entity, Set<String> fields) throws RepositoryException {
+		submit(entity, new TreeSet<>(Objects.requireNonNull(fields)));
+	}
+
+	/**
+	 * Writes the updates pending at the time of the call in the caller thread.
+	 */
+	public void flush() throws RepositoryException {
+		synchronized (flushMutex) {
+			int remaining = getPendingCount();
+			while (remaining > 0) {
+				List<Pending<T>> batch = drain();
+				if (batch.isEmpty()) {
+					return;
+				}
+				write(batch);
+				remaining -= batch.size();
+			}
+		}
+	}
+
+	public WriteBehindStats getStats() {
+		return new WriteBehindStats(getPendingCount(), submitCount.sum(), coalescedCount.sum(), blockedCount.sum(),
+				flushCount.sum(), flushedEntityCount.sum(), failedFlushCount.sum(), totalFlushNanos.sum(),
+				maxFlushNanos.get());
+	}
+
+	/**
+	 * Stops accepting updates and waits until all pending updates are flushed.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			flushNeeded.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Called when updateBatch of a flush failed, the entities are dropped.
+	 */
+	protected void onFlushError(List<T> entityList, RuntimeException ex) {
+		LOG.error("Failed to flush {} entities of {}", entityList.size(), meta.getTableName(), ex);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void submit(T entity, Set<String> fields) {
+		I id = (I) meta.getEntityId(entity);
+		if (id == null) {
+			throw new RepositoryException("Require id to update");
+		}
+		lock.lock();
+		try {
+			boolean blocked = false;
+			Pending<T> p;
+			while (true) {
+				if (closed) {
+					throw new RepositoryException("WriteBehindRepository is closed");
+				}
+				p = pending.get(id);
+				if (p != null || pending.size() < maxPending) {
+					break;
+				}
+				// 缓冲区已满，等待刷新
+				if (!blocked) {
+					blocked = true;
+					blockedCount.increment();
+				}
+				flushNeeded.signal();
+				try {
+					notFull.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RepositoryException(e);
+				}
+			}
+			if (p != null) {
+				p.merge(entity, fields, meta);
+				coalescedCount.increment();
+			} else {
+				pending.put(id, new Pending<>(entity, fields));
+				if (pending.size() >= batchSize) {
+					flushNeeded.signal();
+				}
+			}
+			submitCount.increment();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void runFlusher() {
+		boolean exit = false;
+		while (!exit) {
+			lock.lock();
+			try {
+				long deadline = System.nanoTime() + flushIntervalNanos;
+				while (!closed && pending.size() < batchSize) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					flushNeeded.awaitNanos(remaining);
+				}
+				exit = closed;
+			} catch (InterruptedException e) {
+				// 被中断时不再接收更新，刷新剩余数据后退出
+				closed = true;
+				notFull.signalAll();
+				exit = true;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				flush();
+			} catch (RuntimeException ex) {
+				LOG.error("Failed to flush {}", meta.getTableName(), ex);
+			}
+		}
+	}
+
+	private int getPendingCount() {
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private List<Pending<T>> drain() {
+		lock.lock();
+		try {
+			List<Pending<T>> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+			Iterator<Pending<T>> iter = pending.values().iterator();
+			while (iter.hasNext() && batch.size() < batchSize) {
+				batch.add(iter.next());
+				iter.remove();
+			}
+			if (!batch.isEmpty()) {
+				notFull.signalAll();
+			}
+			return batch;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(List<Pending<T>> batch) {
+		// 按字段集合分组，每组一次updateBatch
+		Map<Set<String>, List<T>> groups = new LinkedHashMap<>();
+		for (Pending<T> p : batch) {
+			groups.computeIfAbsent(p.fields, key -> new ArrayList<>()).add(p.entity);
+		}
+		for (Entry<Set<String>, List<T>> group : groups.entrySet()) {
+			List<T> entityList = group.getValue();
+			long t1 = System.nanoTime();
+			try {
+				if (group.getKey() == null) {
+					repository.updateBatch(entityList);
+				} else {
+					repository.updateBatch(entityList, group.getKey());
+				}
+				flushedEntityCount.add(entityList.size());
+			} catch (RuntimeException ex) {
+				failedFlushCount.increment();
+				onFlushError(entityList, ex);
+			} finally {
+				long took = System.nanoTime() - t1;
+				flushCount.increment();
+				totalFlushNanos.add(took);
+				maxFlushNanos.accumulateAndGet(took, Math::max);
+			}
+		}
+	}
+
+	private static class Pending<T> {
+		T entity;
+		Set<String> fields;
+		// entity为合并时新建的实例，不是调用方的对象
+		boolean merged;
+
+		Pending(T entity, Set<String> fields) {
+			super();
+			this.entity = entity;
+			this.fields = fields;
+		}
+
+		void merge(T newEntity, Set<String> newFields, EntityMeta meta) {
+			if (newEntity != entity && newFields != null) {
+				// 不同实例：旧实例的待写字段值不能丢，合并到自有的实例上
+				if (!merged) {
+					entity = copyOf(entity, meta);
+					merged = true;
+				}
+				for (EntityField field : meta.getNormalFields()) {
+					if (newFields.contains(field.fieldName)) {
+						field.setFieldValue(entity, field.getFieldValue(newEntity));
+					}
+				}
+			} else {
+				entity = newEntity;
+				merged = false;
+			}
+			if (fields == null || newFields == null) {
+				fields = null;
+			} else {
+				fields.addAll(newFields);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T copyOf(T src, EntityMeta meta) {
+			T copy;
+			try {
+				copy = (T) src.getClass().newInstance();
+			} catch (InstantiationException | IllegalAccessException e) {
+				throw new RepositoryException(e);
+			}
+			EntityField idField = meta.getIdField();
+			idField.setFieldValue(copy, idField.getFieldValue(src));
+			for (EntityField field : meta.getNormalFields()) {
+				field.setFieldValue(copy, field.getFieldValue(src));
+			}
+			return copy;
+		}
+
+	}
+
+}
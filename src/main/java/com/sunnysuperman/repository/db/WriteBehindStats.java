@@ -0,0 +1,91 @@
+package com.sunnysuperman.repository.db;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of {@link WriteBehindRepository} counters.
+ */
+public class WriteBehindStats {
+	private final int pendingCount;
+	private final long submitCount;
+	private final long coalescedCount;
+	private final long blockedCount;
+	private final long flushCount;
+	private final long flushedEntityCount;
+	private final long failedFlushCount;
+	private final long totalFlushNanos;
+	private final long maxFlushNanos;
+
+	public WriteBehindStats(int pendingCount, long submitCount, long coalescedCount, long blockedCount,
+			long flushCount, long flushedEntityCount, long failedFlushCount, long totalFlushNanos,
+			long maxFlushNanos) {
+		super();
+		this.pendingCount = pendingCount;
+		this.submitCount = submitCount;
+		this.coalescedCount = coalescedCount;
+		this.blockedCount = blockedCount;
+		this.flushCount = flushCount;
+		this.flushedEntityCount = flushedEntityCount;
+		this.failedFlushCount = failedFlushCount;
+		this.totalFlushNanos = totalFlushNanos;
+		this.maxFlushNanos = maxFlushNanos;
+	}
+
+	/**
+	 * Distinct ids waiting to be flushed (queue depth).
+	 */
+	public int getPendingCount() {
+		return pendingCount;
+	}
+
+	public long getSubmitCount() {
+		return submitCount;
+	}
+
+	/**
+	 * Updates merged into an already pending update of the same id.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * Updates that had to wait for a flush because the buffer was full.
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * Number of updateBatch calls.
+	 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	public long getFlushedEntityCount() {
+		return flushedEntityCount;
+	}
+
+	public long getFailedFlushCount() {
+		return failedFlushCount;
+	}
+
+	public double getAverageFlushMillis() {
+		return flushCount == 0 ? 0 : (double) totalFlushNanos / flushCount / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public double getMaxFlushMillis() {
+		return (double) maxFlushNanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindStats [pendingCount=" + pendingCount + ", submitCount=" + submitCount
+				+ ", coalescedCount=" + coalescedCount + ", blockedCount=" + blockedCount + ", flushCount="
+				+ flushCount + ", flushedEntityCount=" + flushedEntityCount + ", failedFlushCount="
+				+ failedFlushCount + ", averageFlushMillis=" + getAverageFlushMillis() + ", maxFlushMillis="
+				+ getMaxFlushMillis() + "]";
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.sunnysuperman.repository.db.cache;
+
+/**
+ * Snapshot of cache counters.
+ */
+public class CacheStats {
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long rejectionCount;
+
+	public CacheStats(long hitCount, long missCount, long evictionCount, long rejectionCount) {
+		super();
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.rejectionCount = rejectionCount;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+
+	public double getHitRate() {
+		long requestCount = getRequestCount();
+		return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+	}
+
+	/**
+	 * Entries removed because of size or expiration.
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Puts refused by the admission policy.
+	 */
+	public long getRejectionCount() {
+		return rejectionCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [hitCount=" + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount
+				+ ", rejectionCount=" + rejectionCount + "]";
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.sunnysuperman.repository.db.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Second-level cache of entities by id, see
+ * {@link com.sunnysuperman.repository.db.DBCRUDRepository#getEntityCache()}.
+ * The repository copies entities through their column values before putting
+ * and after getting, so callers get the state as it would be read from the
+ * table and do not share mutable values with the cache. This expects
+ * converters to restore a field from its column value. Relations of cached
+ * entities hold only their key, and values of fields written by a DBFunction
+ * are shared.
+ */
+public interface EntityCache<K, V> {
+
+	V get(K key);
+
+	/**
+	 * Returns the cached entries of the keys, missing keys are absent from the
+	 * result.
+	 */
+	default Map<K, V> getAll(Collection<K> keys) {
+		Map<K, V> result = new HashMap<>();
+		for (K key : keys) {
+			V value = get(key);
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	void put(K key, V value);
+
+	void invalidate(K key);
+
+	default void invalidateAll(Collection<K> keys) {
+		keys.forEach(this::invalidate);
+	}
+
+	void invalidateAll();
+
+	CacheStats stats();
+
+}
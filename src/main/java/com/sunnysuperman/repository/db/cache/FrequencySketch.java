@@ -0,0 +1,67 @@
+package com.sunnysuperman.repository.db.cache;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often keys were accessed.
+ * All counters are halved after a sample of accesses so that old popularity
+ * fades out. Not thread safe.
+ */
+class FrequencySketch {
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xb1a3e2f5, 0x5b9e0c47, 0x8a2e6d73 };
+
+	private final byte[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	FrequencySketch(int maximumSize) {
+		int width = Integer.highestOneBit(Math.max(maximumSize, 8) * 2 - 1) << 1;
+		table = new byte[width];
+		mask = width - 1;
+		sampleSize = Math.max(maximumSize, 8) * 10;
+	}
+
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int seed : SEEDS) {
+			frequency = Math.min(frequency, table[index(hash, seed)]);
+		}
+		return frequency;
+	}
+
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int seed : SEEDS) {
+			int index = index(hash, seed);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		additions >>>= 1;
+	}
+
+	private int index(int hash, int seed) {
+		int h = hash * seed;
+		h ^= h >>> 17;
+		return h & mask;
+	}
+
+	private static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return hash ^ (hash >>> 16);
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.sunnysuperman.repository.db.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link EntityCache} bounded by size and time to live.
+ * <p>
+ * When full, the least recently used entry is the eviction candidate and a new
+ * key only replaces it if the key was accessed more often recently (TinyLFU
+ * admission), so that one-off reads do not flush popular entities.
+ */
+public class LocalEntityCache<K, V> implements EntityCache<K, V> {
+	private final int maximumSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<K, CachedValue<V>> data;
+	private final FrequencySketch sketch;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final LongAdder rejectionCount = new LongAdder();
+
+	/**
+	 * @param maximumSize max number of entries
+	 * @param ttlMillis   time to live after put, 0 means no expiration
+	 */
+	public LocalEntityCache(int maximumSize, long ttlMillis) {
+		super();
+		if (maximumSize <= 0 || ttlMillis < 0) {
+			throw new IllegalArgumentException("maximumSize should be positive and ttlMillis not negative");
+		}
+		this.maximumSize = maximumSize;
+		this.ttlMillis = ttlMillis;
+		this.data = new LinkedHashMap<>(16, 0.75f, true);
+		this.sketch = new FrequencySketch(maximumSize);
+	}
+
+	@Override
+	public V get(K key) {
+		long now = System.currentTimeMillis();
+		synchronized (data) {
+			sketch.increment(key);
+			CachedValue<V> cached = data.get(key);
+			if (cached != null && cached.isExpired(now)) {
+				data.remove(key);
+				evictionCount.increment();
+				cached = null;
+			}
+			if (cached == null) {
+				missCount.increment();
+				return null;
+			}
+			hitCount.increment();
+			return cached.value;
+		}
+	}
+
+	@Override
+	public void put(K key, V value) {
+		long now = System.currentTimeMillis();
+		CachedValue<V> cached = new CachedValue<>(value, ttlMillis > 0 ? now + ttlMillis : Long.MAX_VALUE);
+		synchronized (data) {
+			if (data.containsKey(key) || data.size() < maximumSize) {
+				data.put(key, cached);
+				return;
+			}
+			Iterator<Map.Entry<K, CachedValue<V>>> iterator = data.entrySet().iterator();
+			Map.Entry<K, CachedValue<V>> victim = iterator.next();
+			if (!victim.getValue().isExpired(now) && sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+				rejectionCount.increment();
+				return;
+			}
+			iterator.remove();
+			evictionCount.increment();
+			data.put(key, cached);
+		}
+	}
+
+	@Override
+	public void invalidate(K key) {
+		synchronized (data) {
+			data.remove(key);
+		}
+	}
+
+	@Override
+	public void invalidateAll() {
+		synchronized (data) {
+			data.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (data) {
+			return data.size();
+		}
+	}
+
+	@Override
+	public CacheStats stats() {
+		return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), rejectionCount.sum());
+	}
+
+	private static class CachedValue<V> {
+		final V value;
+		final long expireAt;
+
+		CachedValue(V value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired(long now) {
+			return expireAt <= now;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.sunnysuperman.repository.db.id;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Allocates blocks of blockSize ids from a segment table and hands them out
+ * from memory. The next block is fetched asynchronously once half of the
+ * current block is used. Blocks are allocated in their own transaction, so a
+ * rollback of the caller never returns a block. The table is:
+ *
+ * <pre>
+ * create table id_segment(name varchar(100) not null primary key, next_id bigint not null)
+ * </pre>
+ *
+ * A missing segment row is created starting from 1.
+ */
+public class HiLoIdGenerator implements IdGenerator {
+	private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "hilo-prefetch");
+		t.setDaemon(true);
+		return t;
+	});
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final String table;
+	private final String name;
+	private final int blockSize;
+	private long next;
+	private long end;
+	private CompletableFuture<Long> prefetch;
+
+	public HiLoIdGenerator(JdbcTemplate jdbcTemplate, String table, String name, int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize");
+		}
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(
+				new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.table = table;
+		this.name = name;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public synchronized long nextId() {
+		if (next >= end) {
+			long start = nextBlock();
+			next = start;
+			end = start + blockSize;
+		}
+		long id = next++;
+		// 当前号段用去一半时预取下一段
+		if (prefetch == null && end - next <= blockSize / 2) {
+			prefetch = CompletableFuture.supplyAsync(this::allocate, PREFETCH_EXECUTOR);
+		}
+		return id;
+	}
+
+	@Override
+	public synchronized long[] nextIds(int count) {
+		long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = nextId();
+		}
+		return ids;
+	}
+
+	private long nextBlock() {
+		CompletableFuture<Long> future = prefetch;
+		prefetch = null;
+		if (future != null) {
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				// 预取失败时同步重试
+			}
+		}
+		return allocate();
+	}
+
+	private long allocate() {
+		try {
+			return doAllocate();
+		} catch (DuplicateKeyException e) {
+			// 并发创建号段记录，重新读取
+			return doAllocate();
+		}
+	}
+
+	private long doAllocate() {
+		Long start = transactionTemplate.execute(status -> {
+			List<Long> rows = jdbcTemplate.query("select next_id from " + table + " where name=? for update",
+					(rs, rowNum) -> rs.getLong(1), name);
+			if (rows.isEmpty()) {
+				jdbcTemplate.update("insert into " + table + "(name,next_id) values(?,?)", name, 1L + blockSize);
+				return 1L;
+			}
+			long first = rows.get(0);
+			jdbcTemplate.update("update " + table + " set next_id=? where name=?", first + blockSize, name);
+			return first;
+		});
+		if (start == null) {
+			throw new RepositoryException("Failed to allocate ids of " + name);
+		}
+		return start;
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.sunnysuperman.repository.db.id;
+
+/**
+ * Generates ids on the application side, before the insert statement is built.
+ * Implementations are thread-safe.
+ */
+public interface IdGenerator {
+
+	long nextId();
+
+	default long[] nextIds(int count) {
+		long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = nextId();
+		}
+		return ids;
+	}
+
+}
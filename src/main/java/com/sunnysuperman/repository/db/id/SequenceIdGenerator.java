@@ -0,0 +1,45 @@
+package com.sunnysuperman.repository.db.id;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.sunnysuperman.repository.RepositoryException;
+import com.sunnysuperman.repository.db.DatabaseDialect;
+
+/**
+ * Ids from a database sequence, several ids are fetched in one query. MySQL has
+ * no sequences.
+ */
+public class SequenceIdGenerator implements IdGenerator {
+	private final JdbcTemplate jdbcTemplate;
+	private final String sequence;
+
+	public SequenceIdGenerator(JdbcTemplate jdbcTemplate, DatabaseDialect dialect, String sequence) {
+		if (dialect != DatabaseDialect.POSTGRESQL) {
+			throw new RepositoryException("Sequence is not supported by " + dialect);
+		}
+		this.jdbcTemplate = jdbcTemplate;
+		this.sequence = sequence;
+	}
+
+	@Override
+	public long nextId() {
+		Long id = jdbcTemplate.queryForObject("select nextval(?)", Long.class, sequence);
+		if (id == null) {
+			throw new RepositoryException("No value of sequence " + sequence);
+		}
+		return id;
+	}
+
+	@Override
+	public long[] nextIds(int count) {
+		List<Long> values = jdbcTemplate.queryForList("select nextval(?) from generate_series(1,?)", Long.class,
+				sequence, count);
+		if (values.size() != count) {
+			throw new RepositoryException("Failed to get " + count + " values of sequence " + sequence);
+		}
+		return values.stream().mapToLong(Long::longValue).toArray();
+	}
+
+}
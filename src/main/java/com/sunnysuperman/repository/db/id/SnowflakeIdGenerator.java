@@ -0,0 +1,89 @@
+package com.sunnysuperman.repository.db.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 64-bit ids of 41 bits milliseconds since the epoch, 10 bits worker id and 12
+ * bits sequence. Lock-free: the (milliseconds, sequence) pair is advanced by
+ * CAS. When the sequence of a millisecond is exhausted or the clock moves
+ * backwards, the following milliseconds are borrowed, so ids stay unique and
+ * increasing per worker.
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+	public static final long DEFAULT_EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+	public static final int MAX_WORKER_ID = (1 << 10) - 1;
+	private static final int SEQUENCE_BITS = 12;
+	private static final int WORKER_BITS = 10;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	private static final AtomicReferenceArray<SnowflakeIdGenerator> SHARED = new AtomicReferenceArray<>(
+			MAX_WORKER_ID + 1);
+	private final long workerBits;
+	private final long epoch;
+	// 时间戳(相对epoch)<<12 | 序号
+	private final AtomicLong state = new AtomicLong();
+
+	public SnowflakeIdGenerator(int workerId, long epoch) {
+		if (workerId < 0 || workerId > MAX_WORKER_ID) {
+			throw new IllegalArgumentException("workerId should be in [0, " + MAX_WORKER_ID + "]");
+		}
+		if (epoch > System.currentTimeMillis()) {
+			throw new IllegalArgumentException("epoch should not be in the future");
+		}
+		this.workerBits = (long) workerId << SEQUENCE_BITS;
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Shared generator of the worker and {@link #DEFAULT_EPOCH}, so that
+	 * repositories of one process with the same worker id do not collide.
+	 */
+	public static SnowflakeIdGenerator of(int workerId) {
+		if (workerId < 0 || workerId > MAX_WORKER_ID) {
+			throw new IllegalArgumentException("workerId should be in [0, " + MAX_WORKER_ID + "]");
+		}
+		SnowflakeIdGenerator generator = SHARED.get(workerId);
+		if (generator == null) {
+			SHARED.compareAndSet(workerId, null, new SnowflakeIdGenerator(workerId, DEFAULT_EPOCH));
+			generator = SHARED.get(workerId);
+		}
+		return generator;
+	}
+
+	@Override
+	public long nextId() {
+		return toId(reserve(1));
+	}
+
+	@Override
+	public long[] nextIds(int count) {
+		long[] ids = new long[count];
+		if (count == 0) {
+			return ids;
+		}
+		long first = reserve(count);
+		for (int i = 0; i < count; i++) {
+			ids[i] = toId(first + i);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return first of count consecutive states
+	 */
+	private long reserve(int count) {
+		while (true) {
+			long last = state.get();
+			long now = (System.currentTimeMillis() - epoch) << SEQUENCE_BITS;
+			long first = Math.max(now, last + 1);
+			if (state.compareAndSet(last, first + count - 1)) {
+				return first;
+			}
+		}
+	}
+
+	private long toId(long s) {
+		return ((s >>> SEQUENCE_BITS) << (SEQUENCE_BITS + WORKER_BITS)) | workerBits | (s & SEQUENCE_MASK);
+	}
+
+}
@@ -2,10 +2,12 @@ package com.sunnysuperman.repository.db.mapper;
 
 import java.util.Map;
 
+import org.springframework.jdbc.core.RowMapper;
+
 import com.sunnysuperman.repository.db.DefaultFieldConverter;
 import com.sunnysuperman.repository.db.EntityManager;
 
-public class EntityMapper<T> implements DBMapper<T> {
+public class EntityMapper<T> implements ResultSetDBMapper<T> {
 	Class<T> entityClass;
 	DefaultFieldConverter defaultFieldConverter;
 
@@ -20,4 +22,9 @@ public class EntityMapper<T> implements DBMapper<T> {
 		return EntityManager.deserialize(row, entityClass, defaultFieldConverter);
 	}
 
+	@Override
+	public RowMapper<T> createRowMapper() {
+		return EntityManager.createRowMapper(entityClass, defaultFieldConverter);
+	}
+
 }
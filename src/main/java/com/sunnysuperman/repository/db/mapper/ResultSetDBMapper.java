@@ -0,0 +1,17 @@
+package com.sunnysuperman.repository.db.mapper;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * A {@link DBMapper} which is also able to read rows straight from the
+ * ResultSet, skipping the intermediate column map.
+ */
+public interface ResultSetDBMapper<T> extends DBMapper<T> {
+
+	/**
+	 * Creates a row mapper for a single query. The returned mapper may keep state
+	 * bound to the result shape and must not be shared between queries.
+	 */
+	RowMapper<T> createRowMapper();
+
+}
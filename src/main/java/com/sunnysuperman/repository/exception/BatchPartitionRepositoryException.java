@@ -0,0 +1,65 @@
+package com.sunnysuperman.repository.exception;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.sunnysuperman.repository.RepositoryException;
+
+/**
+ * Some partitions of a parallel batch failed. Each partition runs on its own
+ * connection, so the partitions not listed here have been written.
+ */
+@SuppressWarnings("serial")
+public class BatchPartitionRepositoryException extends RepositoryException {
+	private final transient List<FailedPartition> failedPartitions;
+
+	public BatchPartitionRepositoryException(String msg, List<FailedPartition> failedPartitions) {
+		super(msg);
+		this.failedPartitions = Collections.unmodifiableList(failedPartitions);
+		if (!failedPartitions.isEmpty()) {
+			initCause(failedPartitions.get(0).getCause());
+			for (int i = 1; i < failedPartitions.size(); i++) {
+				addSuppressed(failedPartitions.get(i).getCause());
+			}
+		}
+	}
+
+	public List<FailedPartition> getFailedPartitions() {
+		return failedPartitions;
+	}
+
+	/**
+	 * Entities [fromIndex, toIndex) of the batch and the error of their partition.
+	 */
+	public static class FailedPartition {
+		private final int fromIndex;
+		private final int toIndex;
+		private final Throwable cause;
+
+		public FailedPartition(int fromIndex, int toIndex, Throwable cause) {
+			super();
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+			this.cause = cause;
+		}
+
+		public int getFromIndex() {
+			return fromIndex;
+		}
+
+		public int getToIndex() {
+			return toIndex;
+		}
+
+		public Throwable getCause() {
+			return cause;
+		}
+
+		@Override
+		public String toString() {
+			return "FailedPartition [fromIndex=" + fromIndex + ", toIndex=" + toIndex + ", cause=" + cause + "]";
+		}
+
+	}
+
+}
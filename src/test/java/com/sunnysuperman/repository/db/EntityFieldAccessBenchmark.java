@@ -0,0 +1,146 @@
+package com.sunnysuperman.repository.db;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.sunnysuperman.repository.annotation.Column;
+import com.sunnysuperman.repository.annotation.Entity;
+import com.sunnysuperman.repository.annotation.Id;
+import com.sunnysuperman.repository.annotation.IdStrategy;
+import com.sunnysuperman.repository.annotation.Table;
+
+/**
+ * Compares reflective field access (Method.invoke) with the generated
+ * accessors of EntityField.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityFieldAccessBenchmark {
+
+	@Entity
+	@Table(name = "benchmark_entity")
+	public static class BenchmarkEntity {
+		@Id(strategy = IdStrategy.PROVIDED)
+		@Column
+		private Long id;
+
+		@Column
+		private String name;
+
+		@Column
+		private int count;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+	}
+
+	private BenchmarkEntity entity;
+	private EntityField nameField;
+	private EntityField countField;
+	private Method nameReadMethod;
+	private Method nameWriteMethod;
+	private Method countReadMethod;
+	private Method countWriteMethod;
+	private Map<String, Object> row;
+
+	@Setup
+	public void setup() throws Exception {
+		EntityMeta meta = EntityManager.getEntityMetaOf(BenchmarkEntity.class);
+		for (EntityField f : meta.getNormalFields()) {
+			if (f.fieldName.equals("name")) {
+				nameField = f;
+			} else if (f.fieldName.equals("count")) {
+				countField = f;
+			}
+		}
+		nameReadMethod = BenchmarkEntity.class.getMethod("getName");
+		nameWriteMethod = BenchmarkEntity.class.getMethod("setName", String.class);
+		countReadMethod = BenchmarkEntity.class.getMethod("getCount");
+		countWriteMethod = BenchmarkEntity.class.getMethod("setCount", int.class);
+		entity = new BenchmarkEntity();
+		entity.setId(1L);
+		entity.setName("name");
+		entity.setCount(1);
+		row = new HashMap<>();
+		row.put("id", 1L);
+		row.put("name", "name");
+		row.put("count", 1);
+	}
+
+	@Benchmark
+	public void reflectionGet(Blackhole bh) throws Exception {
+		bh.consume(nameReadMethod.invoke(entity));
+		bh.consume(countReadMethod.invoke(entity));
+	}
+
+	@Benchmark
+	public void accessorGet(Blackhole bh) {
+		bh.consume(nameField.getFieldValue(entity));
+		bh.consume(countField.getFieldValue(entity));
+	}
+
+	@Benchmark
+	public void reflectionSet() throws Exception {
+		nameWriteMethod.invoke(entity, "name");
+		countWriteMethod.invoke(entity, 2);
+	}
+
+	@Benchmark
+	public void accessorSet() {
+		nameField.setFieldValue(entity, "name");
+		countField.setFieldValue(entity, 2);
+	}
+
+	@Benchmark
+	public BenchmarkEntity deserialize() {
+		return EntityManager.deserialize(row, BenchmarkEntity.class, BuildInDefautFieldConverter.getInstance());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(EntityFieldAccessBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -4,35 +4,69 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import com.sunnysuperman.commons.page.Page;
+import com.sunnysuperman.commons.page.PullPage;
 import com.sunnysuperman.commons.util.StringUtil;
+import com.sunnysuperman.repository.DeserializeContext;
+import com.sunnysuperman.repository.FieldConverter;
 import com.sunnysuperman.repository.RepositoryException;
+import com.sunnysuperman.repository.SaveResult;
+import com.sunnysuperman.repository.SerializeContext;
 import com.sunnysuperman.repository.annotation.Column;
 import com.sunnysuperman.repository.annotation.Entity;
 import com.sunnysuperman.repository.annotation.Id;
 import com.sunnysuperman.repository.annotation.IdStrategy;
+import com.sunnysuperman.repository.annotation.ManyToOne;
 import com.sunnysuperman.repository.annotation.Table;
 import com.sunnysuperman.repository.annotation.VersionControl;
+import com.sunnysuperman.repository.db.BuildInDefautFieldConverter;
+import com.sunnysuperman.repository.db.CachedCountStrategy;
+import com.sunnysuperman.repository.db.CounterService;
 import com.sunnysuperman.repository.db.DBCRUDRepository;
 import com.sunnysuperman.repository.db.DBRepository;
+import com.sunnysuperman.repository.db.FetchPlan;
+import com.sunnysuperman.repository.db.HasNextCountStrategy;
+import com.sunnysuperman.repository.db.IdentityScope;
+import com.sunnysuperman.repository.db.InClauseBucketing;
+import com.sunnysuperman.repository.db.KeysetSort;
+import com.sunnysuperman.repository.db.LongLongHashMap;
+import com.sunnysuperman.repository.db.UpdateBatchMode;
+import com.sunnysuperman.repository.db.WriteBehindRepository;
+import com.sunnysuperman.repository.db.WriteBehindStats;
+import com.sunnysuperman.repository.db.cache.EntityCache;
+import com.sunnysuperman.repository.db.cache.LocalEntityCache;
+import com.sunnysuperman.repository.db.mapper.DBMapper;
+import com.sunnysuperman.repository.db.mapper.EntityMapper;
 import com.sunnysuperman.repository.db.mapper.LongDBMapper;
+import com.sunnysuperman.repository.exception.BatchPartitionRepositoryException;
 import com.sunnysuperman.repository.exception.StaleEntityRepositoryException;
 
 public class DBRepositoryTest {
@@ -67,6 +101,60 @@ public class DBRepositoryTest {
 
 	}
 
+	public static class OwnerAwareConverter implements FieldConverter<String> {
+
+		@Override
+		public Object convertToColumn(String fieldValue, SerializeContext context) {
+			return fieldValue;
+		}
+
+		@Override
+		public String convertToField(Object columnValue, Class<String> type, DeserializeContext context) {
+			// 读取同一行的其他列
+			return columnValue == null ? null : columnValue + "@" + context.getColumn("v1");
+		}
+
+	}
+
+	@Entity
+	@Table(name = "test_insert_update")
+	public static class ConverterAwareEntity {
+		@Id(strategy = IdStrategy.PROVIDED)
+		@Column
+		private Long id;
+
+		@Column
+		private String v1;
+
+		@Column(converter = OwnerAwareConverter.class)
+		private String v4;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getV1() {
+			return v1;
+		}
+
+		public void setV1(String v1) {
+			this.v1 = v1;
+		}
+
+		public String getV4() {
+			return v4;
+		}
+
+		public void setV4(String v4) {
+			this.v4 = v4;
+		}
+
+	}
+
 	@Entity
 	@Table(name = "test_insert_update")
 	public static class InsertUpdateAwareEntity {
@@ -208,6 +296,119 @@ public class DBRepositoryTest {
 
 	}
 
+	@Entity
+	@Table(name = "test_generated_id")
+	public static class HiLoIdEntity {
+		@Id(strategy = IdStrategy.HILO)
+		@Column
+		private Long id;
+
+		@Column
+		private String val;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getVal() {
+			return val;
+		}
+
+		public void setVal(String val) {
+			this.val = val;
+		}
+
+	}
+
+	@Entity
+	@Table(name = "test_generated_id")
+	public static class SnowflakeIdEntity {
+		@Id(strategy = IdStrategy.SNOWFLAKE)
+		@Column
+		private Long id;
+
+		@Column
+		private String val;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public String getVal() {
+			return val;
+		}
+
+		public void setVal(String val) {
+			this.val = val;
+		}
+
+	}
+
+	@Entity
+	@Table(name = "test_dirty_tracking", mapCamelToUnderscore = true)
+	public static class DateAwareEntity {
+		@Id(strategy = IdStrategy.INCREMENT)
+		@Column
+		private Long id;
+
+		@Column
+		private Date updatedAt;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public Date getUpdatedAt() {
+			return updatedAt;
+		}
+
+		public void setUpdatedAt(Date updatedAt) {
+			this.updatedAt = updatedAt;
+		}
+
+	}
+
+	@Entity
+	@Table(name = "test_relation")
+	public static class RelationEntity {
+		@Id(strategy = IdStrategy.INCREMENT)
+		@Column
+		private Long id;
+
+		@ManyToOne
+		@Column
+		private AutoIncrementIdAwareEntity parent;
+
+		public Long getId() {
+			return id;
+		}
+
+		public void setId(Long id) {
+			this.id = id;
+		}
+
+		public AutoIncrementIdAwareEntity getParent() {
+			return parent;
+		}
+
+		public void setParent(AutoIncrementIdAwareEntity parent) {
+			this.parent = parent;
+		}
+
+	}
+
 	public static DBRepository get() throws IOException {
 		if (dbRepository == null) {
 			dbRepository = new DBRepository() {
@@ -229,23 +430,35 @@ public class DBRepositoryTest {
 
 	public static <T, ID> DBCRUDRepository<T, ID> getCRUDRepository(Class<T> type, Class<ID> idType)
 			throws IOException {
-		return new DBCRUDRepository<T, ID>() {
+		return new TestCRUDRepository<T, ID>(type) {
+		};
+	}
 
-			@Override
-			protected Class<T> getEntityClass() {
-				return type;
-			}
+	/**
+	 * Repository of the test database, tests override the hooks they exercise.
+	 */
+	public abstract static class TestCRUDRepository<T, ID> extends DBCRUDRepository<T, ID> {
+		private final Class<T> entityClass;
 
-			@Override
-			protected JdbcTemplate getJdbcTemplate() {
-				try {
-					return JdbcTemplateWrap.get();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
+		protected TestCRUDRepository(Class<T> entityClass) {
+			super();
+			this.entityClass = entityClass;
+		}
+
+		@Override
+		protected Class<T> getEntityClass() {
+			return entityClass;
+		}
+
+		@Override
+		protected JdbcTemplate getJdbcTemplate() {
+			try {
+				return JdbcTemplateWrap.get();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
+		}
 
-		};
 	}
 
 	@Test
@@ -765,6 +978,45 @@ public class DBRepositoryTest {
 		assertNull(repo.findById(a3.getId()));
 	}
 
+	@Test
+	void deleteBatchBySet() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = getCRUDRepository(AutoIncrementIdAwareEntity.class,
+				Long.class);
+		List<AutoIncrementIdAwareEntity> list = IntStream.range(0, 5).mapToObj(i -> {
+			AutoIncrementIdAwareEntity a = new AutoIncrementIdAwareEntity();
+			a.setVal("d" + i);
+			repo.insert(a);
+			return a;
+		}).collect(Collectors.toList());
+		assertTrue(repo.deleteBatch(list.subList(0, 3)));
+		// 已删除的和重复的id视为失败，其余仍被删除
+		assertFalse(repo.deleteBatch(Arrays.asList(list.get(0), list.get(3), list.get(4), list.get(4))));
+		list.forEach(i -> assertNull(repo.findById(i.getId())));
+
+		DBCRUDRepository<IntVerionAwareEntity, Long> versionRepo = getCRUDRepository(IntVerionAwareEntity.class,
+				Long.class);
+		List<IntVerionAwareEntity> versionList = IntStream.range(0, 5).mapToObj(i -> {
+			IntVerionAwareEntity a = new IntVerionAwareEntity();
+			a.setVal("d" + i);
+			versionRepo.insert(a);
+			return a;
+		}).collect(Collectors.toList());
+		IntVerionAwareEntity updated = versionRepo.findById(versionList.get(1).getId());
+		updated.setVal("d1-updated");
+		versionRepo.update(updated);
+		versionRepo.deleteById(versionList.get(3).getId());
+		try {
+			versionRepo.deleteBatch(versionList);
+			assertTrue(false);
+		} catch (StaleEntityRepositoryException e) {
+			LOG.info(e.getMessage());
+			assertTrue(e.getMessage().contains("/" + updated.getId() + " (1 not found)"));
+		}
+		assertNull(versionRepo.findById(versionList.get(0).getId()));
+		assertNull(versionRepo.findById(versionList.get(4).getId()));
+		assertTrue(versionRepo.deleteBatch(Arrays.asList(updated)));
+	}
+
 	@Test
 	void updateBatch() throws Exception {
 		DBCRUDRepository<IntVerionAwareEntity, Long> repo = getCRUDRepository(IntVerionAwareEntity.class, Long.class);
@@ -930,6 +1182,1143 @@ public class DBRepositoryTest {
 		}
 	}
 
+	@Test
+	void stream() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = getCRUDRepository(AutoIncrementIdAwareEntity.class,
+				Long.class);
+		long currentId = getCurrentAutoIncrementId();
+		for (int i = 0; i < 5; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal(makeValue());
+			repo.insert(entity);
+		}
+
+		try (Stream<AutoIncrementIdAwareEntity> stream = repo.stream(
+				"select * from test_insert_generate_key where id>? order by id", new Object[] { currentId },
+				getCRUDEntityMapper(AutoIncrementIdAwareEntity.class))) {
+			List<Long> ids = stream.map(AutoIncrementIdAwareEntity::getId).collect(Collectors.toList());
+			assertEquals(5, ids.size());
+			assertEquals(currentId + 1, ids.get(0).longValue());
+		}
+
+		List<Long> ids = new ArrayList<>();
+		repo.forEach("select id from test_insert_generate_key where id>?", new Object[] { currentId },
+				LongDBMapper.getInstance(), ids::add);
+		assertEquals(5, ids.size());
+	}
+
+	@Test
+	void findForKeysetPage() throws Exception {
+		DBRepository repo = get();
+		long currentId = getCurrentAutoIncrementId();
+		List<Map<String, Object>> docs = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			docs.add(Collections.singletonMap("val", "k" + (i % 3)));
+		}
+		repo.insertDocs("test_insert_generate_key", docs);
+
+		String sql = "select * from test_insert_generate_key where id>?";
+		Object[] params = new Object[] { currentId };
+		KeysetSort sort = KeysetSort.desc("val").thenAsc("id");
+		List<Long> expected = repo.findForList(sql + " order by val desc,id asc", params, 0, 0,
+				LongDBMapper.getInstance());
+
+		List<Long> ids = new ArrayList<>();
+		String marker = null;
+		int pages = 0;
+		do {
+			PullPage<Long> page = repo.findForKeysetPage(sql, params, sort, marker, 3, LongDBMapper.getInstance());
+			ids.addAll(page.getItems());
+			marker = page.isHasMore() ? page.getMarker() : null;
+			pages++;
+		} while (marker != null);
+		assertEquals(3, pages);
+		assertEquals(expected, ids);
+	}
+
+	@Test
+	void findForKeysetPageWithDerivedTable() throws Exception {
+		DBRepository repo = get();
+		long currentId = getCurrentAutoIncrementId();
+		List<Map<String, Object>> docs = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			docs.add(Collections.singletonMap("val", "d" + (i % 4)));
+		}
+		repo.insertDocs("test_insert_generate_key", docs);
+
+		// 派生表和子查询里都有where，排序列带表别名
+		String sql = "select t.id,t.val from (select id,val from test_insert_generate_key where id>?) t"
+				+ " where t.val in (select val from test_insert_generate_key where id>? and val<>?)";
+		Object[] params = new Object[] { currentId, currentId, "d3" };
+		List<Long> expected = repo.findForList(sql + " order by t.val asc,t.id desc", params, 0, 0,
+				LongDBMapper.getInstance());
+		assertEquals(6, expected.size());
+
+		KeysetSort sort = KeysetSort.asc("t.val").thenDesc("t.id");
+		List<Long> ids = new ArrayList<>();
+		String marker = null;
+		int pages = 0;
+		do {
+			PullPage<Long> page = repo.findForKeysetPage(sql, params, sort, marker, 4, LongDBMapper.getInstance());
+			ids.addAll(page.getItems());
+			marker = page.isHasMore() ? page.getMarker() : null;
+			pages++;
+		} while (marker != null);
+		assertEquals(2, pages);
+		assertEquals(expected, ids);
+	}
+
+	@Test
+	void findForPageWithCountStrategy() throws Exception {
+		DBRepository repo = get();
+		long currentId = getCurrentAutoIncrementId();
+		List<Map<String, Object>> docs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			docs.add(Collections.singletonMap("val", makeValue()));
+		}
+		repo.insertDocs("test_insert_generate_key", docs);
+
+		String sql = "select id from test_insert_generate_key where id>? order by id";
+		Object[] params = new Object[] { currentId };
+		{
+			Page<Long> page = repo.findForPage(sql, null, params, 2, 2, LongDBMapper.getInstance(),
+					HasNextCountStrategy.getInstance());
+			assertEquals(2, page.getItems().size());
+			assertEquals(5, page.getSize());
+		}
+		{
+			CachedCountStrategy countStrategy = new CachedCountStrategy(60000, 100);
+			Page<Long> page = repo.findForPage(sql, null, params, 2, 2, LongDBMapper.getInstance(),
+					countStrategy);
+			assertEquals(5, page.getSize());
+			repo.insertDoc("test_insert_generate_key", Collections.singletonMap("val", makeValue()));
+			page = repo.findForPage(sql, null, params, 4, 2, LongDBMapper.getInstance(), countStrategy);
+			assertEquals(2, page.getItems().size());
+			assertEquals(5, page.getSize());
+		}
+	}
+
+	@Test
+	void entityCache() throws Exception {
+		LocalEntityCache<Long, AutoIncrementIdAwareEntity> cache = new LocalEntityCache<>(100, 60000);
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(
+				AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected EntityCache<Long, AutoIncrementIdAwareEntity> getEntityCache() {
+				return cache;
+			}
+
+		};
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal(makeValue());
+			repo.insert(entity);
+			ids.add(entity.getId());
+		}
+
+		AutoIncrementIdAwareEntity entity = repo.findById(ids.get(0));
+		entity.setVal("changed-but-not-saved");
+		assertFalse(entity.getVal().equals(repo.findById(ids.get(0)).getVal()));
+		assertEquals(1, cache.stats().getHitCount());
+
+		assertEquals(3, repo.findByIds(ids).size());
+		assertEquals(2, cache.stats().getHitCount());
+		assertEquals(3, cache.stats().getMissCount());
+
+		entity.setVal(makeValue());
+		repo.update(entity);
+		assertEquals(entity.getVal(), repo.findById(ids.get(0)).getVal());
+
+		repo.deleteByIds(ids);
+		assertTrue(repo.findByIds(ids).isEmpty());
+	}
+
+	@Test
+	void identityScope() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = getCRUDRepository(AutoIncrementIdAwareEntity.class,
+				Long.class);
+		AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+		entity.setVal(makeValue());
+		repo.insert(entity);
+		Long id = entity.getId();
+
+		try (IdentityScope scope = IdentityScope.open()) {
+			AutoIncrementIdAwareEntity loaded = repo.findById(id);
+			assertTrue(loaded == repo.findById(id));
+			assertTrue(loaded == repo.findByIds(Collections.singletonList(id)).get(0));
+			repo.deleteById(id);
+			assertNull(repo.findById(id));
+		}
+		assertNull(IdentityScope.current());
+	}
+
+	@Test
+	void coalescedFindById() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(
+				AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected long getFindByIdCoalescingWindowMicros() {
+				return 2000;
+			}
+
+		};
+		List<AutoIncrementIdAwareEntity> list = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal(makeValue());
+			repo.insert(entity);
+			list.add(entity);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		try {
+			List<Future<AutoIncrementIdAwareEntity>> futures = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				Long id = list.get(i % list.size()).getId();
+				futures.add(executor.submit(() -> repo.findById(id)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				assertEquals(list.get(i % list.size()).getVal(), futures.get(i).get().getVal());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void hydrate() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> parentRepo = getCRUDRepository(
+				AutoIncrementIdAwareEntity.class, Long.class);
+		DBCRUDRepository<RelationEntity, Long> repo = getCRUDRepository(RelationEntity.class, Long.class);
+		List<AutoIncrementIdAwareEntity> parents = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			AutoIncrementIdAwareEntity parent = new AutoIncrementIdAwareEntity();
+			parent.setVal(makeValue());
+			parentRepo.insert(parent);
+			parents.add(parent);
+		}
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			RelationEntity entity = new RelationEntity();
+			entity.setParent(parents.get(i % 2));
+			repo.insert(entity);
+			ids.add(entity.getId());
+		}
+
+		List<RelationEntity> list = repo.findByIdsInOrder(ids);
+		assertNull(list.get(0).getParent().getVal());
+		repo.hydrate(list, FetchPlan.of("parent"));
+		for (int i = 0; i < list.size(); i++) {
+			assertEquals(parents.get(i % 2).getVal(), list.get(i).getParent().getVal());
+		}
+		assertTrue(list.get(0).getParent() == list.get(2).getParent());
+	}
+
+	@Test
+	void findByFields() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = getCRUDRepository(InsertUpdateAwareEntity.class,
+				Long.class);
+		Long id = 101L;
+		repo.deleteById(id);
+		InsertUpdateAwareEntity entity = new InsertUpdateAwareEntity();
+		entity.setId(id);
+		entity.setV1("yy1");
+		entity.setV3("yy3");
+		repo.insert(entity);
+
+		InsertUpdateAwareEntity e = repo.findById(id, Collections.singleton("v3"));
+		assertEquals(id, e.getId());
+		assertNull(e.getV1());
+		assertEquals("yy3", e.getV3());
+
+		List<InsertUpdateAwareEntity> list = repo.findByIds(Arrays.asList(id, 0L), Collections.singleton("v1"));
+		assertEquals(1, list.size());
+		assertEquals("yy1", list.get(0).getV1());
+		assertNull(list.get(0).getV3());
+	}
+
+	@Test
+	void findByFieldsWithConverter() throws Exception {
+		DBCRUDRepository<ConverterAwareEntity, Long> repo = getCRUDRepository(ConverterAwareEntity.class, Long.class);
+		Long id = 108L;
+		repo.deleteById(id);
+		ConverterAwareEntity entity = new ConverterAwareEntity();
+		entity.setId(id);
+		entity.setV1("owner");
+		entity.setV4("yy4");
+		repo.insert(entity);
+
+		// 转换器读取未选择的列，仍能取到
+		ConverterAwareEntity e = repo.findById(id, Collections.singleton("v4"));
+		assertEquals("yy4@owner", e.getV4());
+		assertEquals("yy4@owner", repo.findByIds(Arrays.asList(id, 0L), Collections.singleton("v4")).get(0).getV4());
+		assertEquals("yy4@owner", repo.findById(id).getV4());
+	}
+
+	@Test
+	void findPrimitives() throws Exception {
+		DBRepository repo = get();
+		long currentId = getCurrentAutoIncrementId();
+		List<Map<String, Object>> docs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			docs.add(Collections.singletonMap("val", makeValue()));
+		}
+		repo.insertDocs("test_insert_generate_key", docs);
+
+		long[] ids = repo.findLongs("select id from test_insert_generate_key where id>? order by id",
+				new Object[] { currentId }, 0, 0);
+		assertEquals(3, ids.length);
+		assertEquals(currentId + 1, ids[0]);
+
+		LongLongHashMap map = repo.findLongToLongMap("select id,id*2 from test_insert_generate_key where id>?",
+				new Object[] { currentId }, 0, 0);
+		assertEquals(3, map.size());
+		assertEquals(ids[2] * 2, map.get(ids[2], 0));
+	}
+
+	@Test
+	void insertEntityBatchMultiRow() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(
+				AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected boolean useMultiRowInsert() {
+				return true;
+			}
+
+			@Override
+			protected int multiRowInsertMaxRows() {
+				return 4;
+			}
+
+		};
+		List<AutoIncrementIdAwareEntity> entityList = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal(makeValue());
+			entityList.add(entity);
+		}
+		repo.insertBatch(entityList);
+
+		for (AutoIncrementIdAwareEntity entity : entityList) {
+			assertEquals(entity.getVal(), repo.findById(entity.getId()).getVal());
+		}
+	}
+
+	@Test
+	void saveByNativeUpsert() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = new TestCRUDRepository<InsertUpdateAwareEntity, Long>(
+				InsertUpdateAwareEntity.class) {
+
+			@Override
+			protected boolean useNativeUpsert() {
+				return true;
+			}
+
+		};
+		// found rows：先查已存在的id再执行upsert
+		assertNativeUpsert(repo);
+	}
+
+	@Test
+	void saveByNativeUpsertWithAffectedRows() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = new TestCRUDRepository<InsertUpdateAwareEntity, Long>(
+				InsertUpdateAwareEntity.class) {
+
+			@Override
+			protected JdbcTemplate getJdbcTemplate() {
+				try {
+					return JdbcTemplateWrap.getWithAffectedRows();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			protected boolean useNativeUpsert() {
+				return true;
+			}
+
+			@Override
+			protected boolean useAffectedRows() {
+				return true;
+			}
+
+		};
+		// affected rows：单条upsert语句，按行数区分插入和更新
+		assertNativeUpsert(repo);
+	}
+
+	private void assertNativeUpsert(DBCRUDRepository<InsertUpdateAwareEntity, Long> repo) {
+		Long id = 102L;
+		repo.deleteById(id);
+		InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+		e.setId(id);
+		e.setV1("xx1");
+		e.setV2("xx2");
+		e.setV3("xx3");
+		e.setV4("xx4");
+		assertTrue(repo.save(e).isInserted());
+		{
+			InsertUpdateAwareEntity saved = repo.findById(id);
+			assertEquals("xx1", saved.getV1());
+			assertNull(saved.getV2());
+			assertEquals("xx3", saved.getV3());
+			assertNull(saved.getV4());
+		}
+
+		e.setV1("zz1");
+		e.setV2("zz2");
+		e.setV3("zz3");
+		e.setV4("zz4");
+		assertTrue(repo.save(e).isUpdated());
+		{
+			InsertUpdateAwareEntity saved = repo.findById(id);
+			assertEquals("zz1", saved.getV1());
+			assertEquals("zz2", saved.getV2());
+			assertEquals("xx3", saved.getV3());
+			assertNull(saved.getV4());
+		}
+
+		// 值未变的已存在记录仍为更新
+		assertEquals(SaveResult.RES_UPDATED, repo.save(e));
+		InsertUpdateAwareEntity e2 = new InsertUpdateAwareEntity();
+		e2.setId(106L);
+		e2.setV1("yy1");
+		repo.deleteById(e2.getId());
+		assertEquals(Arrays.asList(SaveResult.RES_UPDATED, SaveResult.RES_INSERTED),
+				repo.saveBatch(Arrays.asList(e, e2)));
+	}
+
+	@Test
+	void saveBatch() throws Exception {
+		DBCRUDRepository<IntVerionAwareEntity, Long> repo = getCRUDRepository(IntVerionAwareEntity.class, Long.class);
+
+		IntVerionAwareEntity a = new IntVerionAwareEntity();
+		a.setVal("a1");
+		repo.insert(a);
+		IntVerionAwareEntity a2 = repo.findById(a.getId());
+		a2.setVal("a2");
+		IntVerionAwareEntity b = new IntVerionAwareEntity();
+		b.setVal("b1");
+
+		List<SaveResult> results = repo.saveBatch(Arrays.asList(a2, b));
+		assertTrue(results.get(0).isUpdated());
+		assertTrue(results.get(1).isInserted());
+		assertEquals(a.getVersion().intValue() + 1, a2.getVersion().intValue());
+		assertNotNull(b.getId());
+		assertNotNull(b.getVersion());
+		assertEquals("a2", repo.findById(a.getId()).getVal());
+		assertEquals("b1", repo.findById(b.getId()).getVal());
+
+		try {
+			a.setVal("a3");
+			repo.saveBatch(Arrays.asList(a, b));
+			assertTrue(false);
+		} catch (StaleEntityRepositoryException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	void dirtyTracking() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = new TestCRUDRepository<InsertUpdateAwareEntity, Long>(
+				InsertUpdateAwareEntity.class) {
+
+			@Override
+			protected boolean useDirtyTracking() {
+				return true;
+			}
+
+		};
+		Long id = 103L;
+		repo.deleteById(id);
+		InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+		e.setId(id);
+		e.setV1("xx1");
+		repo.insert(e);
+
+		InsertUpdateAwareEntity loaded = repo.findById(id);
+		loaded.setV1("yy1");
+		// 加载后被其他途径修改的列，未变更时不会被覆盖
+		get().execute("update test_insert_update set v2=? where id=?", new Object[] { "db2", id });
+		assertTrue(repo.update(loaded));
+		{
+			InsertUpdateAwareEntity saved = repo.findById(id);
+			assertEquals("yy1", saved.getV1());
+			assertEquals("db2", saved.getV2());
+		}
+
+		// 无变更时不执行更新
+		get().execute("update test_insert_update set v1=? where id=?", new Object[] { "db1", id });
+		assertTrue(repo.update(loaded));
+		assertEquals("db1", repo.findById(id).getV1());
+	}
+
+	@Test
+	void dirtyTrackingSave() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = new TestCRUDRepository<InsertUpdateAwareEntity, Long>(
+				InsertUpdateAwareEntity.class) {
+
+			@Override
+			protected boolean useDirtyTracking() {
+				return true;
+			}
+
+		};
+		Long id = 107L;
+		repo.deleteById(id);
+		InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+		e.setId(id);
+		e.setV1("xx1");
+		repo.insert(e);
+		InsertUpdateAwareEntity loaded = repo.findById(id);
+		assertEquals(SaveResult.RES_UPDATED, repo.save(loaded));
+		// 无变更但记录已被删除，save()重新插入
+		get().execute("delete from test_insert_update where id=?", new Object[] { id });
+		assertEquals(SaveResult.RES_INSERTED, repo.save(loaded));
+		assertEquals("xx1", repo.findById(id).getV1());
+	}
+
+	@Test
+	void dirtyTrackingDetectsInPlaceMutation() throws Exception {
+		DBCRUDRepository<DateAwareEntity, Long> repo = new TestCRUDRepository<DateAwareEntity, Long>(
+				DateAwareEntity.class) {
+
+			@Override
+			protected boolean useDirtyTracking() {
+				return true;
+			}
+
+		};
+		DateAwareEntity e = new DateAwareEntity();
+		e.setUpdatedAt(new Date(1700000000000L));
+		repo.insert(e);
+
+		DateAwareEntity loaded = repo.findById(e.getId());
+		// 原地修改Date，快照为副本，仍能检测到变更
+		loaded.getUpdatedAt().setTime(1800000000000L);
+		assertTrue(repo.update(loaded));
+		assertEquals(1800000000000L, repo.findById(e.getId()).getUpdatedAt().getTime());
+	}
+
+	@Test
+	void writeBehind() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = getCRUDRepository(InsertUpdateAwareEntity.class,
+				Long.class);
+		List<Long> ids = Arrays.asList(104L, 105L);
+		for (Long id : ids) {
+			repo.deleteById(id);
+			InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+			e.setId(id);
+			e.setV1("xx1");
+			e.setV3("xx3");
+			repo.insert(e);
+		}
+		WriteBehindRepository<InsertUpdateAwareEntity, Long> writeBehind = new WriteBehindRepository<>(repo, 10, 5,
+				1000);
+		for (int i = 0; i < 100; i++) {
+			for (Long id : ids) {
+				InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+				e.setId(id);
+				e.setV1("v" + i);
+				writeBehind.update(e, Collections.singleton("v1"));
+			}
+		}
+		writeBehind.close();
+		WriteBehindStats stats = writeBehind.getStats();
+		assertEquals(0, stats.getPendingCount());
+		assertEquals(200, stats.getSubmitCount());
+		assertEquals(200, stats.getCoalescedCount() + stats.getFlushedEntityCount());
+		for (Long id : ids) {
+			InsertUpdateAwareEntity saved = repo.findById(id);
+			assertEquals("v99", saved.getV1());
+			assertEquals("xx3", saved.getV3());
+		}
+		try {
+			writeBehind.update(repo.findById(ids.get(0)));
+			assertTrue(false);
+		} catch (RepositoryException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	void writeBehindMergesInstances() throws Exception {
+		DBCRUDRepository<InsertUpdateAwareEntity, Long> repo = getCRUDRepository(InsertUpdateAwareEntity.class,
+				Long.class);
+		Long id = 104L;
+		repo.deleteById(id);
+		InsertUpdateAwareEntity e = new InsertUpdateAwareEntity();
+		e.setId(id);
+		e.setV1("xx1");
+		e.setV3("xx3");
+		repo.insert(e);
+		WriteBehindRepository<InsertUpdateAwareEntity, Long> writeBehind = new WriteBehindRepository<>(repo, 10, 5,
+				60000);
+		// 不同实例分别更新不同字段，两个字段都要写入
+		InsertUpdateAwareEntity e1 = new InsertUpdateAwareEntity();
+		e1.setId(id);
+		e1.setV1("yy1");
+		writeBehind.update(e1, Collections.singleton("v1"));
+		InsertUpdateAwareEntity e2 = new InsertUpdateAwareEntity();
+		e2.setId(id);
+		e2.setV3("yy3");
+		writeBehind.update(e2, Collections.singleton("v3"));
+		writeBehind.close();
+		assertEquals(1, writeBehind.getStats().getCoalescedCount());
+		InsertUpdateAwareEntity saved = repo.findById(id);
+		assertEquals("yy1", saved.getV1());
+		assertEquals("yy3", saved.getV3());
+		// 调用方的实例不被修改
+		assertEquals(null, e2.getV1());
+	}
+
+	@Test
+	void counterService() throws Exception {
+		DBRepository repo = get();
+		repo.execute("delete from test_counter where id=?", new Object[] { 1L });
+		Map<String, Object> doc = new HashMap<>();
+		doc.put("id", 1L);
+		repo.insertDoc("test_counter", doc);
+
+		CounterService counters = new CounterService(repo, 100, 1000);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					counters.increment("test_counter", "id", 1L, "view_count");
+					counters.increment("test_counter", "id", 1L, "like_count", 2);
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		assertEquals(4000L, counters.get("test_counter", "id", 1L, "view_count"));
+		assertEquals(8000L, counters.get("test_counter", "id", 1L, "like_count"));
+		assertNull(counters.get("test_counter", "id", 2L, "view_count"));
+
+		counters.close();
+		assertEquals(4000L, repo.find("select view_count from test_counter where id=?", new Object[] { 1L },
+				LongDBMapper.getInstance()));
+		assertEquals(8000L, repo.find("select like_count from test_counter where id=?", new Object[] { 1L },
+				LongDBMapper.getInstance()));
+		try {
+			counters.increment("test_counter", "id", 1L, "view_count");
+			assertTrue(false);
+		} catch (RepositoryException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	void updateBatchByCaseWhen() throws Exception {
+		DBCRUDRepository<UpdateBatchObj, Long> repo = getCRUDRepository(UpdateBatchObj.class, Long.class);
+
+		List<UpdateBatchObj> entityList = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			UpdateBatchObj e = new UpdateBatchObj();
+			e.setVal("v" + i);
+			repo.insert(e);
+			entityList.add(e);
+		}
+		for (UpdateBatchObj e : entityList) {
+			e.setVal(e.getVal() + "_2");
+			e.setVal2("x");
+		}
+		assertTrue(repo.updateBatch(entityList, new HashSet<>(Arrays.asList("val")), UpdateBatchMode.CASE_WHEN));
+		for (int i = 0; i < entityList.size(); i++) {
+			UpdateBatchObj e = repo.getById(entityList.get(i).getId());
+			assertEquals("v" + i + "_2", e.getVal());
+			assertNull(e.getVal2());
+		}
+
+		assertTrue(repo.updateBatch(entityList, null, UpdateBatchMode.CASE_WHEN));
+		for (UpdateBatchObj e : entityList) {
+			assertEquals("x", repo.getById(e.getId()).getVal2());
+		}
+	}
+
+	@Test
+	void updateBatchWithAffectedRows() throws Exception {
+		DBCRUDRepository<UpdateBatchObj, Long> repo = new TestCRUDRepository<UpdateBatchObj, Long>(
+				UpdateBatchObj.class) {
+
+			@Override
+			protected JdbcTemplate getJdbcTemplate() {
+				try {
+					return JdbcTemplateWrap.getWithAffectedRows();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			protected boolean useAffectedRows() {
+				return true;
+			}
+
+		};
+		List<UpdateBatchObj> entityList = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			UpdateBatchObj e = new UpdateBatchObj();
+			e.setVal("v" + i);
+			repo.insert(e);
+			entityList.add(e);
+		}
+		// 只有一行的值改变，其余行影响行数为0
+		entityList.get(0).setVal("v0_2");
+		assertTrue(repo.updateBatch(entityList, null, UpdateBatchMode.CASE_WHEN));
+		assertTrue(repo.updateBatch(entityList, null, UpdateBatchMode.JDBC_BATCH));
+		assertEquals("v0_2", repo.getById(entityList.get(0).getId()).getVal());
+		repo.deleteById(entityList.get(2).getId());
+		assertFalse(repo.updateBatch(entityList, null, UpdateBatchMode.CASE_WHEN));
+	}
+
+	@Test
+	void bulkLoad() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(
+				AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected int getBulkLoadChunkRows() {
+				return 300;
+			}
+
+		};
+		String prefix = makeValue();
+		int rows = 1000;
+		long loaded = repo.bulkLoad(IntStream.range(0, rows).mapToObj(i -> {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal(i == 0 ? prefix + "\t\\" + i : prefix + i);
+			return entity;
+		}));
+		assertEquals(rows, loaded);
+		assertEquals(rows, get().find("select count(*) from test_insert_generate_key where val like ?",
+				new Object[] { prefix + "%" }, LongDBMapper.getInstance()).intValue());
+		assertEquals(1, get().find("select count(*) from test_insert_generate_key where val=?",
+				new Object[] { prefix + "\t\\0" }, LongDBMapper.getInstance()).intValue());
+	}
+
+	@Test
+	void bulkLoadFailsOnWarnings() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = getCRUDRepository(AutoIncrementIdAwareEntity.class,
+				Long.class);
+		String prefix = makeValue();
+		AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+		// val为VARCHAR(100)，load data按IGNORE处理，超长值被截断并产生警告
+		entity.setVal(prefix + String.join("", Collections.nCopies(100, "x")));
+		try {
+			repo.bulkLoad(Stream.of(entity));
+			assertTrue(false);
+		} catch (RepositoryException e) {
+			assertTrue(e.getMessage().startsWith("Bulk load into test_insert_generate_key got warnings: "));
+		}
+	}
+
+	@Test
+	void insertAndUpdateBatchInChunks() throws Exception {
+		DBCRUDRepository<IntVerionAwareEntity, Long> repo = getCRUDRepository(IntVerionAwareEntity.class, Long.class);
+
+		List<IntVerionAwareEntity> entityList = new ArrayList<>();
+		int inserted = repo.insertBatch(IntStream.range(0, 25).mapToObj(i -> {
+			IntVerionAwareEntity entity = new IntVerionAwareEntity();
+			entity.setVal("v" + i);
+			entityList.add(entity);
+			return entity;
+		}), 10, true);
+		assertEquals(25, inserted);
+		for (IntVerionAwareEntity entity : entityList) {
+			assertNotNull(entity.getId());
+			assertEquals(1, entity.getVersion().intValue());
+		}
+
+		entityList.forEach(entity -> entity.setVal(entity.getVal() + "_2"));
+		assertTrue(repo.updateBatch(entityList.iterator(), null, 7, false));
+		for (IntVerionAwareEntity entity : entityList) {
+			assertEquals(2, entity.getVersion().intValue());
+			IntVerionAwareEntity saved = repo.getById(entity.getId());
+			assertEquals(entity.getVal(), saved.getVal());
+			assertEquals(2, saved.getVersion().intValue());
+		}
+	}
+
+	@Test
+	void findAndDeleteByIdsInChunks() throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newChunkedRepository(null, Collections.emptySet());
+		assertChunkedReadsAndDeletes(repo);
+	}
+
+	@Test
+	void findAndDeleteByIdsInParallelChunks() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newChunkedRepository(executor,
+					Collections.emptySet());
+			assertChunkedReadsAndDeletes(repo);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void deleteByIdsInChunksFailure() throws Exception {
+		Set<Long> failingIds = ConcurrentHashMap.newKeySet();
+		{
+			// 顺序执行：第一个失败的块之后的块不再执行
+			List<Long> ids = insertChunkedEntities(6);
+			failingIds.add(ids.get(2));
+			DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newChunkedRepository(null, failingIds);
+			try {
+				repo.deleteByIds(ids);
+				assertTrue(false);
+			} catch (RepositoryException e) {
+				assertEquals("Failed chunk of " + ids.get(2), e.getMessage());
+			}
+			assertNull(repo.findById(ids.get(0)));
+			assertNotNull(repo.findById(ids.get(2)));
+			assertNotNull(repo.findById(ids.get(4)));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			// 并行执行：所有块执行完，抛出第一个块的异常，其余异常作为suppressed
+			List<Long> ids = insertChunkedEntities(6);
+			failingIds.clear();
+			failingIds.add(ids.get(0));
+			failingIds.add(ids.get(4));
+			DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newChunkedRepository(executor, failingIds);
+			try {
+				repo.deleteByIds(ids);
+				assertTrue(false);
+			} catch (RepositoryException e) {
+				assertEquals("Failed chunk of " + ids.get(0), e.getMessage());
+				assertEquals(1, e.getSuppressed().length);
+				assertEquals("Failed chunk of " + ids.get(4), e.getSuppressed()[0].getMessage());
+			}
+			assertNotNull(repo.findById(ids.get(0)));
+			assertNull(repo.findById(ids.get(2)));
+			assertNull(repo.findById(ids.get(3)));
+			assertNotNull(repo.findById(ids.get(4)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private DBCRUDRepository<AutoIncrementIdAwareEntity, Long> newChunkedRepository(Executor executor,
+			Set<Long> failingIds) {
+		return new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected int getIdsChunkSize() {
+				return 2;
+			}
+
+			@Override
+			protected Executor getParallelExecutor() {
+				return executor;
+			}
+
+			@Override
+			public int execute(String sql, Object[] params) {
+				for (Object param : params) {
+					if (failingIds.contains(param)) {
+						throw new RepositoryException("Failed chunk of " + params[0]);
+					}
+				}
+				return super.execute(sql, params);
+			}
+
+		};
+	}
+
+	private List<Long> insertChunkedEntities(int size) throws Exception {
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = getCRUDRepository(AutoIncrementIdAwareEntity.class,
+				Long.class);
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal("chunk" + i);
+			repo.insert(entity);
+			ids.add(entity.getId());
+		}
+		return ids;
+	}
+
+	private void assertChunkedReadsAndDeletes(DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo)
+			throws Exception {
+		List<Long> ids = insertChunkedEntities(5);
+		List<Long> reversed = new ArrayList<>(ids);
+		Collections.reverse(reversed);
+		// 5个id分为3块，含一个不存在的id和重复的id
+		List<Long> query = new ArrayList<>(reversed);
+		query.add(0L);
+		query.add(ids.get(0));
+
+		List<AutoIncrementIdAwareEntity> list = repo.findByIds(query);
+		assertEquals(new HashSet<>(ids),
+				list.stream().map(AutoIncrementIdAwareEntity::getId).collect(Collectors.toSet()));
+		// 按传入顺序返回，重复的id重复返回，不存在的id跳过
+		List<Long> inOrder = new ArrayList<>(reversed);
+		inOrder.add(ids.get(0));
+		assertEquals(inOrder, repo.findByIdsInOrder(query).stream().map(AutoIncrementIdAwareEntity::getId)
+				.collect(Collectors.toList()));
+		Map<Long, AutoIncrementIdAwareEntity> map = repo.findForMapByIds(query);
+		assertEquals(new HashSet<>(ids), map.keySet());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals("chunk" + i, map.get(ids.get(i)).getVal());
+		}
+
+		assertEquals(ids.size(), repo.deleteByIds(query));
+		assertTrue(repo.findByIds(ids).isEmpty());
+	}
+
+	@Test
+	void findAndDeleteByIdsWithInClauseBucketing() throws Exception {
+		List<Long> ids = insertChunkedEntities(5);
+		List<String> sqls = new ArrayList<>();
+		List<Object[]> paramsList = new ArrayList<>();
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newBucketingRepository(
+				InClauseBucketing.POWER_OF_TWO, 1000, sqls, paramsList);
+
+		// 3个id补齐到4个，重复最后一个id
+		assertEquals(3, repo.findByIds(ids.subList(0, 3)).size());
+		assertEquals(4, countPlaceholders(sqls.get(0)));
+		assertEquals(Arrays.asList(ids.get(0), ids.get(1), ids.get(2), ids.get(2)), Arrays.asList(paramsList.get(0)));
+		// 同一分档复用同一条SQL
+		assertEquals(4, repo.findByIds(ids.subList(0, 4)).size());
+		assertSame(sqls.get(0), sqls.get(1));
+		assertEquals(Arrays.asList(ids.subList(0, 4).toArray()), Arrays.asList(paramsList.get(1)));
+		// 5个id补齐到8个
+		assertEquals(5, repo.findByIds(ids).size());
+		assertEquals(8, countPlaceholders(sqls.get(2)));
+		assertEquals(ids.get(4), paramsList.get(2)[7]);
+		// 2个id不补齐
+		assertEquals(2, repo.findByIds(ids.subList(0, 2)).size());
+		assertEquals(2, paramsList.get(3).length);
+
+		// 补齐时重复的id不影响删除行数
+		sqls.clear();
+		paramsList.clear();
+		assertEquals(3, repo.deleteByIds(ids.subList(0, 3)));
+		assertEquals(4, paramsList.get(0).length);
+		assertEquals(ids.get(2), paramsList.get(0)[3]);
+		assertTrue(repo.findByIds(ids.subList(0, 3)).isEmpty());
+		assertEquals(2, repo.findByIds(ids.subList(3, 5)).size());
+	}
+
+	@Test
+	void findByIdsWithExactAndMultipleOfBucketing() throws Exception {
+		List<Long> ids = insertChunkedEntities(5);
+		List<String> sqls = new ArrayList<>();
+		List<Object[]> paramsList = new ArrayList<>();
+		{
+			DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newBucketingRepository(InClauseBucketing.EXACT,
+					1000, sqls, paramsList);
+			assertEquals(3, repo.findByIds(ids.subList(0, 3)).size());
+			assertEquals(5, repo.findByIds(ids).size());
+			assertEquals(3, countPlaceholders(sqls.get(0)));
+			assertEquals(3, paramsList.get(0).length);
+			assertEquals(5, countPlaceholders(sqls.get(1)));
+			assertEquals(5, paramsList.get(1).length);
+		}
+		sqls.clear();
+		paramsList.clear();
+		{
+			DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newBucketingRepository(
+					InClauseBucketing.multipleOf(4), 1000, sqls, paramsList);
+			assertEquals(2, repo.findByIds(ids.subList(0, 2)).size());
+			assertEquals(4, repo.findByIds(ids.subList(0, 4)).size());
+			assertEquals(5, repo.findByIds(ids).size());
+			assertSame(sqls.get(0), sqls.get(1));
+			assertEquals(Arrays.asList(ids.get(0), ids.get(1), ids.get(1), ids.get(1)),
+					Arrays.asList(paramsList.get(0)));
+			assertEquals(8, countPlaceholders(sqls.get(2)));
+			assertEquals(8, paramsList.get(2).length);
+		}
+		assertThrows(IllegalArgumentException.class, () -> InClauseBucketing.multipleOf(0));
+		// 分档小于id个数视为错误
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> badRepo = newBucketingRepository(size -> size - 1, 1000,
+				sqls, paramsList);
+		assertThrows(RepositoryException.class, () -> badRepo.findByIds(ids));
+	}
+
+	@Test
+	void findByIdsBucketingCappedByPlaceholdersLimit() throws Exception {
+		List<Long> ids = insertChunkedEntities(2);
+		List<String> sqls = new ArrayList<>();
+		List<Object[]> paramsList = new ArrayList<>();
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = newBucketingRepository(
+				InClauseBucketing.POWER_OF_TWO, 40000, sqls, paramsList);
+		// 40000个id补齐到65536个会超过65535个占位符的上限，不补齐
+		List<Long> query = new ArrayList<>(ids);
+		for (long id = -1; query.size() < 40000; id--) {
+			query.add(id);
+		}
+		assertEquals(2, repo.findByIds(query).size());
+		assertEquals(1, paramsList.size());
+		assertEquals(40000, paramsList.get(0).length);
+		assertEquals(40000, countPlaceholders(sqls.get(0)));
+		// 未超过上限时照常补齐
+		assertEquals(2, repo.findByIds(query.subList(0, 20000)).size());
+		assertEquals(32768, paramsList.get(1).length);
+	}
+
+	private DBCRUDRepository<AutoIncrementIdAwareEntity, Long> newBucketingRepository(InClauseBucketing bucketing,
+			int idsChunkSize, List<String> sqls, List<Object[]> paramsList) {
+		return new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected int getIdsChunkSize() {
+				return idsChunkSize;
+			}
+
+			@Override
+			protected int maxNumberOfRows() {
+				return idsChunkSize;
+			}
+
+			@Override
+			protected InClauseBucketing getInClauseBucketing() {
+				return bucketing;
+			}
+
+			@Override
+			public <X> List<X> findForList(String sql, Object[] params, int offset, int limit, DBMapper<X> mapper) {
+				sqls.add(sql);
+				paramsList.add(params);
+				return super.findForList(sql, params, offset, limit, mapper);
+			}
+
+			@Override
+			public int execute(String sql, Object[] params) {
+				sqls.add(sql);
+				paramsList.add(params);
+				return super.execute(sql, params);
+			}
+
+		};
+	}
+
+	private static long countPlaceholders(String sql) {
+		return sql.chars().filter(c -> c == '?').count();
+	}
+
+	@Test
+	void insertEntityBatchInParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo = new TestCRUDRepository<AutoIncrementIdAwareEntity, Long>(
+				AutoIncrementIdAwareEntity.class) {
+
+			@Override
+			protected int getInsertBatchParallelism() {
+				return 4;
+			}
+
+			@Override
+			protected Executor getParallelExecutor() {
+				return executor;
+			}
+
+		};
+		try {
+			List<AutoIncrementIdAwareEntity> entityList = new ArrayList<>();
+			for (int i = 0; i < 103; i++) {
+				AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+				entity.setVal(makeValue());
+				entityList.add(entity);
+			}
+			repo.insertBatch(entityList);
+			for (AutoIncrementIdAwareEntity entity : entityList) {
+				assertEquals(entity.getVal(), repo.findById(entity.getId()).getVal());
+			}
+
+			// 部分分区失败，其余分区已写入
+			entityList = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+				entity.setVal(i == 15 ? null : makeValue());
+				entityList.add(entity);
+			}
+			try {
+				repo.insertBatch(entityList);
+				assertTrue(false);
+			} catch (BatchPartitionRepositoryException e) {
+				assertEquals(1, e.getFailedPartitions().size());
+				assertEquals(10, e.getFailedPartitions().get(0).getFromIndex());
+				assertEquals(20, e.getFailedPartitions().get(0).getToIndex());
+			}
+			assertNotNull(entityList.get(0).getId());
+			assertNotNull(entityList.get(39).getId());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void applicationGeneratedIds() throws Exception {
+		{
+			DBCRUDRepository<HiLoIdEntity, Long> repo = getCRUDRepository(HiLoIdEntity.class, Long.class);
+			HiLoIdEntity e = new HiLoIdEntity();
+			e.setVal(makeValue());
+			repo.insert(e);
+			assertNotNull(e.getId());
+
+			List<HiLoIdEntity> entityList = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				HiLoIdEntity entity = new HiLoIdEntity();
+				entity.setVal(makeValue());
+				entityList.add(entity);
+			}
+			repo.insertBatch(entityList);
+			for (int i = 0; i < entityList.size(); i++) {
+				assertEquals(e.getId() + i + 1, entityList.get(i).getId().longValue());
+				assertEquals(entityList.get(i).getVal(), repo.findById(entityList.get(i).getId()).getVal());
+			}
+		}
+		{
+			// 未配置机器号时拒绝生成
+			SnowflakeIdEntity noWorker = new SnowflakeIdEntity();
+			noWorker.setVal(makeValue());
+			try {
+				getCRUDRepository(SnowflakeIdEntity.class, Long.class).insert(noWorker);
+				assertTrue(false);
+			} catch (RepositoryException e) {
+				e.printStackTrace();
+			}
+
+			DBCRUDRepository<SnowflakeIdEntity, Long> repo = new TestCRUDRepository<SnowflakeIdEntity, Long>(
+					SnowflakeIdEntity.class) {
+
+				@Override
+				protected Integer getSnowflakeWorkerId() {
+					return 1;
+				}
+
+			};
+			List<SnowflakeIdEntity> entityList = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				SnowflakeIdEntity entity = new SnowflakeIdEntity();
+				entity.setVal(makeValue());
+				entityList.add(entity);
+			}
+			repo.insertBatch(entityList);
+			for (int i = 1; i < entityList.size(); i++) {
+				assertTrue(entityList.get(i).getId() > entityList.get(i - 1).getId());
+			}
+			assertEquals(entityList.get(9).getVal(), repo.findById(entityList.get(9).getId()).getVal());
+		}
+	}
+
+	private static <T> DBMapper<T> getCRUDEntityMapper(Class<T> type) {
+		return new EntityMapper<>(type, BuildInDefautFieldConverter.getInstance());
+	}
+
 	private String makeValue() {
 		return StringUtil.randomString("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ", 20);
 	}
@@ -0,0 +1,108 @@
+package com.sunnysuperman.repository.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.sunnysuperman.repository.db.DBCRUDRepository;
+import com.sunnysuperman.repository.test.DBRepositoryTest.AutoIncrementIdAwareEntity;
+
+/**
+ * Compares insertBatch as a JDBC batch of single-row inserts with multi-row
+ * inserts, against the database of test.properties (table
+ * test_insert_generate_key of test.sql).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBatchBenchmark {
+
+	@Param({ "100", "1000" })
+	private int rows;
+
+	private DBCRUDRepository<AutoIncrementIdAwareEntity, Long> batchRepo;
+	private DBCRUDRepository<AutoIncrementIdAwareEntity, Long> multiRowRepo;
+
+	private static class Repo extends DBCRUDRepository<AutoIncrementIdAwareEntity, Long> {
+		private final boolean multiRow;
+
+		Repo(boolean multiRow) {
+			this.multiRow = multiRow;
+		}
+
+		@Override
+		protected Class<AutoIncrementIdAwareEntity> getEntityClass() {
+			return AutoIncrementIdAwareEntity.class;
+		}
+
+		@Override
+		protected JdbcTemplate getJdbcTemplate() {
+			try {
+				return JdbcTemplateWrap.get();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		protected boolean useMultiRowInsert() {
+			return multiRow;
+		}
+
+	}
+
+	@Setup
+	public void setup() {
+		batchRepo = new Repo(false);
+		multiRowRepo = new Repo(true);
+	}
+
+	@Benchmark
+	public List<AutoIncrementIdAwareEntity> batch() {
+		List<AutoIncrementIdAwareEntity> entityList = makeEntityList();
+		batchRepo.insertBatch(entityList);
+		return entityList;
+	}
+
+	@Benchmark
+	public List<AutoIncrementIdAwareEntity> multiRow() {
+		List<AutoIncrementIdAwareEntity> entityList = makeEntityList();
+		multiRowRepo.insertBatch(entityList);
+		return entityList;
+	}
+
+	private List<AutoIncrementIdAwareEntity> makeEntityList() {
+		List<AutoIncrementIdAwareEntity> entityList = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal("benchmark" + i);
+			entityList.add(entity);
+		}
+		return entityList;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(InsertBatchBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -10,21 +10,43 @@ import com.zaxxer.hikari.HikariDataSource;
 
 public class JdbcTemplateWrap {
 	private static JdbcTemplate jdbcTemplate;
+	private static JdbcTemplate affectedRowsJdbcTemplate;
 
 	public static JdbcTemplate get() throws IOException {
 		if (jdbcTemplate == null) {
-			Properties props = new Properties();
-			props.load(JdbcTemplateWrap.class.getResourceAsStream("test.properties"));
-
-			HikariDataSource ds = new HikariDataSource();
-			ds.setDriverClassName("com.mysql.cj.jdbc.Driver");
-			ds.setJdbcUrl(props.getProperty("jdbcUrl"));
-			ds.setUsername(props.getProperty("username"));
-			ds.setPassword(props.getProperty("password"));
-			jdbcTemplate = new LogAwareJdbcTemplate(ds);
+			jdbcTemplate = create(false);
 		}
 
 		return jdbcTemplate;
 	}
 
+	/**
+	 * Connections reporting affected rows (useAffectedRows=true) instead of found
+	 * rows.
+	 */
+	public static JdbcTemplate getWithAffectedRows() throws IOException {
+		if (affectedRowsJdbcTemplate == null) {
+			affectedRowsJdbcTemplate = create(true);
+		}
+
+		return affectedRowsJdbcTemplate;
+	}
+
+	private static JdbcTemplate create(boolean useAffectedRows) throws IOException {
+		Properties props = new Properties();
+		props.load(JdbcTemplateWrap.class.getResourceAsStream("test.properties"));
+
+		HikariDataSource ds = new HikariDataSource();
+		ds.setDriverClassName("com.mysql.cj.jdbc.Driver");
+		ds.setJdbcUrl(props.getProperty("jdbcUrl"));
+		ds.setUsername(props.getProperty("username"));
+		ds.setPassword(props.getProperty("password"));
+		// bulkLoad: load data local infile
+		ds.addDataSourceProperty("allowLoadLocalInfile", "true");
+		if (useAffectedRows) {
+			ds.addDataSourceProperty("useAffectedRows", "true");
+		}
+		return new LogAwareJdbcTemplate(ds);
+	}
+
 }
@@ -0,0 +1,116 @@
+package com.sunnysuperman.repository.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.sunnysuperman.repository.db.DBCRUDRepository;
+import com.sunnysuperman.repository.test.DBRepositoryTest.AutoIncrementIdAwareEntity;
+
+/**
+ * Throughput of insertBatch split into partitions inserted concurrently over
+ * 1..8 connections, against the database of test.properties (table
+ * test_insert_generate_key of test.sql). The connection pool must allow at
+ * least 8 connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelInsertBatchBenchmark {
+
+	@Param({ "1", "2", "4", "8" })
+	private int parallelism;
+
+	@Param({ "10000" })
+	private int rows;
+
+	private ExecutorService executor;
+	private DBCRUDRepository<AutoIncrementIdAwareEntity, Long> repo;
+
+	private static class Repo extends DBCRUDRepository<AutoIncrementIdAwareEntity, Long> {
+		private final int parallelism;
+		private final Executor executor;
+
+		Repo(int parallelism, Executor executor) {
+			this.parallelism = parallelism;
+			this.executor = executor;
+		}
+
+		@Override
+		protected Class<AutoIncrementIdAwareEntity> getEntityClass() {
+			return AutoIncrementIdAwareEntity.class;
+		}
+
+		@Override
+		protected JdbcTemplate getJdbcTemplate() {
+			try {
+				return JdbcTemplateWrap.get();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		protected int getInsertBatchParallelism() {
+			return parallelism;
+		}
+
+		@Override
+		protected Executor getParallelExecutor() {
+			return executor;
+		}
+
+	}
+
+	@Setup
+	public void setup() {
+		executor = Executors.newFixedThreadPool(parallelism);
+		repo = new Repo(parallelism, executor);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public List<AutoIncrementIdAwareEntity> insertBatch() {
+		List<AutoIncrementIdAwareEntity> entityList = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			AutoIncrementIdAwareEntity entity = new AutoIncrementIdAwareEntity();
+			entity.setVal("benchmark" + i);
+			entityList.add(entity);
+		}
+		repo.insertBatch(entityList);
+		return entityList;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ParallelInsertBatchBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
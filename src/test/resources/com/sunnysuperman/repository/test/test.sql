@@ -32,3 +32,34 @@ CREATE TABLE `test_insert_update` (
   `v4` VARCHAR(100) DEFAULT NULL,
   PRIMARY KEY (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='测试插入及修改';
+
+CREATE TABLE `test_relation` (
+  `id` BIGINT AUTO_INCREMENT NOT NULL,
+  `parent` BIGINT DEFAULT NULL COMMENT '关联test_insert_generate_key',
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='测试关联对象';
+
+CREATE TABLE `id_segment` (
+  `name` VARCHAR(100) NOT NULL COMMENT '号段名称',
+  `next_id` BIGINT NOT NULL COMMENT '下一号段起始ID',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='HILO号段';
+
+CREATE TABLE `test_generated_id` (
+  `id` BIGINT NOT NULL,
+  `val` VARCHAR(100) NOT NULL COMMENT '测试值',
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='测试应用生成ID';
+
+CREATE TABLE `test_counter` (
+  `id` BIGINT NOT NULL,
+  `view_count` BIGINT NOT NULL DEFAULT 0 COMMENT '浏览数',
+  `like_count` BIGINT NOT NULL DEFAULT 0 COMMENT '点赞数',
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='测试计数器';
+
+CREATE TABLE `test_dirty_tracking` (
+  `id` BIGINT AUTO_INCREMENT NOT NULL,
+  `updated_at` DATETIME(3) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='测试脏检查(可变字段)';